@@ -1,7 +1,19 @@
 @echo off
 
+SET MEMJC_OPTS=
+IF EXIST %~dp0\..\build\libs\memjc.jsa (
+    REM class data sharing archive (memjc -Mcds-dump)
+    SET MEMJC_OPTS=-XX:SharedArchiveFile=%~dp0\..\build\libs\memjc.jsa -Xshare:auto
+)
+
+IF "%MEMJC_PORT%"=="" (
+    SET MEMJC_MAIN=-jar %~dp0\..\build\libs\memjc.jar
+) ELSE (
+    SET MEMJC_MAIN=-cp %~dp0\..\build\libs\memjc.jar org.tadaedo.memjc.Client
+)
+
 IF %JAVA_HOME%=="" (
-    java -jar %~dp0\..\build\libs\memjc.jar %*
+    java %MEMJC_OPTS% %MEMJC_MAIN% %*
 ) ELSE (
-    %JAVA_HOME%\bin\java -jar %~dp0\..\build\libs\memjc.jar %*
+    %JAVA_HOME%\bin\java %MEMJC_OPTS% %MEMJC_MAIN% %*
 )
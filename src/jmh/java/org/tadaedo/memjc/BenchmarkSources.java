@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+// generated sources for the benchmarks
+final class BenchmarkSources {
+
+    static final String PACKAGE_NAME = "bench";
+
+    private BenchmarkSources() {
+    }
+
+    static int getClassCount(String size) {
+
+        switch (size) {
+        case "small":
+            return 1;
+        case "medium":
+            return 20;
+        case "large":
+            return 200;
+        default:
+            throw new IllegalArgumentException("Unknown size: " + size);
+        }
+    }
+
+    static List<String> generate(Path root, int classCount, int methodCount) throws IOException {
+
+        Path dir = Files.createDirectories(root.resolve(PACKAGE_NAME));
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < classCount; i++) {
+            StringBuilder buf = new StringBuilder();
+            buf.append("package ").append(PACKAGE_NAME).append(";\n");
+            buf.append("public class C").append(i).append(" {\n");
+            for (int j = 0; j < methodCount; j++) {
+                buf.append("    public static int m").append(j).append("(int x) {\n");
+                buf.append("        int sum = 0;\n");
+                buf.append("        for (int i = 0; i < x; i++) {\n");
+                buf.append("            sum += i * ").append(j).append(";\n");
+                buf.append("        }\n");
+                if (i > 0) {
+                    buf.append("        sum += C").append(i - 1).append(".m").append(j).append("(x - 1);\n");
+                }
+                buf.append("        return sum;\n");
+                buf.append("    }\n");
+            }
+            buf.append("}\n");
+
+            Path path = dir.resolve("C" + i + ".java");
+            Files.write(path, buf.toString().getBytes(StandardCharsets.UTF_8));
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    static List<String> getClassNames(int classCount) {
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < classCount; i++) {
+            names.add(PACKAGE_NAME + ".C" + i);
+        }
+        return names;
+    }
+
+    static void delete(Path root) throws IOException {
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
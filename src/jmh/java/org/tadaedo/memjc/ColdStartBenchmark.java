@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// wall-clock time of a new memjc JVM compiling and running a small program
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ColdStartBenchmark {
+
+    private static final String MAIN_CLASS = "Hello";
+    // class data sharing needs memjc as a jar (gradle jmh sets it)
+    private static final String JAR_PROPERTY = "memjc.jar";
+
+    @Param({"none", "cds"})
+    public String share;
+
+    private Path root;
+    private List<String> args;
+    private List<String> command;
+
+    @Setup
+    public void setup() throws Exception {
+
+        root = Files.createTempDirectory("memjc-bench");
+        Path source = root.resolve(MAIN_CLASS + ".java");
+        Files.write(source, ("public class " + MAIN_CLASS + " {\n"
+                + "    public static void main(String[] args) {\n"
+                + "        System.out.println(\"hello\");\n"
+                + "    }\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+        args = Arrays.asList("-Mmain:" + MAIN_CLASS, source.toString());
+
+        String jar = getJar();
+        command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        if ("cds".equals(share)) {
+            String archive = root.resolve(CdsDump.ARCHIVE_NAME).toString();
+            if (new CdsDump(archive, jar).dump(args) != Main.STATUS_OK) {
+                throw new IllegalStateException("training run failed");
+            }
+            command.add("-XX:SharedArchiveFile=" + archive);
+            command.add("-Xshare:auto");
+        }
+        command.add("-cp");
+        command.add(jar);
+        command.add(Main.class.getName());
+        command.addAll(args);
+    }
+
+    private static String getJar() throws Exception {
+
+        String jar = System.getProperty(JAR_PROPERTY);
+        if (jar == null) {
+            File location = new File(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (!location.isFile()) {
+                throw new IllegalStateException("-D" + JAR_PROPERTY + "=<memjc.jar> is required");
+            }
+            jar = location.getPath();
+        }
+        return new File(jar).getAbsolutePath();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+
+        BenchmarkSources.delete(root);
+    }
+
+    @Benchmark
+    public int coldStart() throws Exception {
+
+        Process process = new ProcessBuilder(command)
+                .directory(root.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(root.resolve("out.txt").toFile())
+                .start();
+        return process.waitFor();
+    }
+}
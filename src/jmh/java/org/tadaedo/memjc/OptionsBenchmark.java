@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OptionsBenchmark {
+
+    @Param({"10000", "100000"})
+    public int lineCount;
+
+    private Path argfile;
+
+    @Setup
+    public void setup() throws Exception {
+
+        argfile = Files.createTempFile("memjc-bench", ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(argfile, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lineCount; i++) {
+                writer.write("src/bench/p" + (i % 100) + "/C" + i + ".java");
+                writer.newLine();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+
+        Files.delete(argfile);
+    }
+
+    @Benchmark
+    public Options setOptions() throws Exception {
+
+        Options options = new Options();
+        options.setOptions(new String[] {"@" + argfile});
+        return options;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutputBenchmark {
+
+    @Param({"20", "200"})
+    public int classCount;
+
+    private Session session;
+    private Path root;
+
+    @Setup
+    public void setup() throws Exception {
+
+        root = Files.createTempDirectory("memjc-bench");
+        List<String> files = BenchmarkSources.generate(root, classCount, 20);
+        session = new Session();
+        if (!new Compiler(session, true, false).compile(Arrays.asList("-cp", root.toString()), files)) {
+            throw new IllegalStateException("compile failed");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+
+        session.close();
+        BenchmarkSources.delete(root);
+    }
+
+    @Benchmark
+    public void outputAllFile() throws Exception {
+
+        session.outputAllFile();
+    }
+}
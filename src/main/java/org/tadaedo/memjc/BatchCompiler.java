@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+
+// compiles many standalone sources in one JVM (-Mbatch), each source is a compile of its own
+// with its own classes and class loader, so two sources may declare the same class
+public final class BatchCompiler implements Closeable {
+
+    private static final String JAVA_SUFFIX = ".java";
+    private static final String MANIFEST_COMMENT = "#";
+
+    // one compiler, its file managers are reused by the workers
+    private final InMemoryCompiler compiler;
+    private final Charset charset;
+    private final ExecutorService executor;
+    // null if the sources are only compiled
+    private final BatchRunner runner;
+    private final List<String> args;
+
+    public BatchCompiler(List<String> opts, List<String> classPaths, int threads, boolean run, long timeout,
+            List<String> args) throws IOException {
+
+        this.compiler = new InMemoryCompiler(removeClassPath(opts), classPaths, Session.getParentClassLoader());
+        this.charset = Compiler.getCharset(opts);
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+
+                Thread thread = new Thread(r, "memjc-batch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.runner = run ? new BatchRunner(classPaths, threads, timeout) : null;
+        this.args = args;
+    }
+
+    // InMemoryCompiler sets the class path itself
+    private static List<String> removeClassPath(List<String> opts) {
+
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < opts.size(); i++) {
+            if (opts.get(i).equals("-cp") || opts.get(i).equals("-classpath")) {
+                i++;
+            } else {
+                result.add(opts.get(i));
+            }
+        }
+        return result;
+    }
+
+    // outcome of one source
+    public static final class SourceResult {
+
+        private final String path;
+        private final String className;
+        private final boolean success;
+        private final long time;
+        private final List<CompileDiagnostic> diagnostics;
+        private final Future<RunResult> run;
+
+        SourceResult(String path, String className, boolean success, long time,
+                List<CompileDiagnostic> diagnostics, Future<RunResult> run) {
+
+            this.path = path;
+            this.className = className;
+            this.success = success;
+            this.time = time;
+            this.diagnostics = diagnostics;
+            this.run = run;
+        }
+
+        public String getPath() {
+
+            return path;
+        }
+
+        // the class named after the file
+        public String getClassName() {
+
+            return className;
+        }
+
+        public boolean isSuccess() {
+
+            return success;
+        }
+
+        // compile time in nanoseconds
+        public long getTime() {
+
+            return time;
+        }
+
+        public List<CompileDiagnostic> getDiagnostics() {
+
+            return diagnostics;
+        }
+
+        // null if not run or no main class was compiled
+        public Future<RunResult> getRun() {
+
+            return run;
+        }
+    }
+
+    // the .java files under a directory, or the files listed in a manifest (one per line, # comments)
+    public static List<String> listSources(String dirOrManifest) throws IOException {
+
+        Path path = Paths.get(dirOrManifest);
+        final List<String> paths = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+
+                    if (attrs.isRegularFile() && file.toString().endsWith(JAVA_SUFFIX)) {
+                        paths.add(file.toString());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            Collections.sort(paths);
+        } else {
+            Path base = path.toAbsolutePath().getParent();
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith(MANIFEST_COMMENT)) {
+                    paths.add(base.resolve(line).toString());
+                }
+            }
+        }
+        return paths;
+    }
+
+    public Future<SourceResult> submit(final String path) {
+
+        return executor.submit(new Callable<SourceResult>() {
+
+            @Override
+            public SourceResult call() throws IOException {
+
+                return compile(path);
+            }
+        });
+    }
+
+    private SourceResult compile(String path) throws IOException {
+
+        long start = System.nanoTime();
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        String className = getClassName(path, bytes);
+
+        CompileResult result = compiler.compileBytes(Collections.singletonMap(className, bytes), charset);
+        long time = System.nanoTime() - start;
+
+        Future<RunResult> run = null;
+        if (runner != null && result.isSuccess()) {
+            String mainClass = findMainClass(className, result);
+            if (mainClass != null) {
+                ClassStore store = new ClassStore();
+                for (String name : result.getClasses().keySet()) {
+                    store.put(name, result.getClasses().get(name));
+                }
+                run = runner.submit(mainClass, args, store);
+            }
+        }
+        // diagnostics name the file, not the memory source
+        List<CompileDiagnostic> diagnostics = new ArrayList<>();
+        for (CompileDiagnostic diagnostic : result.getDiagnostics()) {
+            diagnostics.add(diagnostic.getSource() == null ? diagnostic
+                    : new CompileDiagnostic(diagnostic.getKind(), path, diagnostic.getLine(), diagnostic.getColumn(),
+                            diagnostic.getCode(), diagnostic.getMessage()));
+        }
+        return new SourceResult(path, className, result.isSuccess(), time, diagnostics, run);
+    }
+
+    // package of the source and the file name, javac checks public classes against it
+    private static String getClassName(String path, byte[] bytes) {
+
+        String fileName = Paths.get(path).getFileName().toString();
+        String simpleName = fileName.endsWith(JAVA_SUFFIX)
+                ? fileName.substring(0, fileName.length() - JAVA_SUFFIX.length()) : fileName;
+        Matcher matcher = SourcePartitioner.PACKAGE_PATTERN.matcher(new String(bytes, StandardCharsets.ISO_8859_1));
+        return matcher.find() ? matcher.group(1) + "." + simpleName : simpleName;
+    }
+
+    // the class named after the file, otherwise the first class with a main method
+    private static String findMainClass(String className, CompileResult result) {
+
+        List<String> names = new ArrayList<>(result.getClasses().keySet());
+        Collections.sort(names);
+        names.remove(className);
+        names.add(0, className);
+        for (String name : names) {
+            if (result.getClasses().containsKey(name) && Runner.hasMainMethod(name, result.getClassLoader())) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    // compiles every source, the report is printed in the order of the sources as they finish
+    // false if a source did not compile or its run failed
+    public boolean compileAll(List<String> paths, PrintStream out, PrintStream err)
+            throws IOException, InterruptedException {
+
+        long start = System.nanoTime();
+        List<Future<SourceResult>> futures = new ArrayList<>();
+        for (String path : paths) {
+            futures.add(submit(path));
+        }
+
+        int failed = 0;
+        long[] times = new long[paths.size()];
+        List<RunResult> runs = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            SourceResult result;
+            try {
+                result = futures.get(i).get();
+            } catch (ExecutionException ex) {
+                failed++;
+                out.println(String.format("== %s (error)", paths.get(i)));
+                out.println(ex.getCause());
+                continue;
+            } finally {
+                // the classes of a reported source can be collected
+                futures.set(i, null);
+            }
+
+            times[i] = result.getTime();
+            if (!result.isSuccess()) {
+                failed++;
+            }
+            out.println(String.format("== %s (%s, %.3f ms)", result.getPath(), result.isSuccess() ? "ok" : "failed",
+                    Benchmark.toMillis(result.getTime())));
+            for (CompileDiagnostic diagnostic : result.getDiagnostics()) {
+                out.println(diagnostic);
+            }
+
+            if (result.getRun() != null) {
+                RunResult run;
+                try {
+                    run = result.getRun().get();
+                } catch (ExecutionException ex) {
+                    throw new IOException(ex.getCause());
+                }
+                runs.add(run);
+                out.println(String.format("-- %s (%s, %.3f ms)", run.getClassName(),
+                        run.getStatus().name().toLowerCase(Locale.ROOT), Benchmark.toMillis(run.getTime())));
+                out.print(run.getOut());
+                out.flush();
+                err.print(run.getErr());
+                if (run.getError() != null) {
+                    err.println(run.getError());
+                }
+                err.flush();
+            }
+        }
+        long wallTime = System.nanoTime() - start;
+
+        err.println(String.format("memjc batch: %d sources (ok %d, failed %d) in %.3f s, %.1f sources/s",
+                paths.size(), paths.size() - failed, failed, wallTime / 1000000000.0,
+                wallTime == 0 ? 0.0 : paths.size() * 1000000000.0 / wallTime));
+        if (times.length > 0) {
+            long[] sorted = Benchmark.sort(times);
+            err.println(String.format("  compile p50 %12.3f ms", Benchmark.toMillis(Benchmark.percentile(sorted, 50))));
+            err.println(String.format("  compile p99 %12.3f ms", Benchmark.toMillis(Benchmark.percentile(sorted, 99))));
+            err.println(String.format("  compile max %12.3f ms", Benchmark.toMillis(sorted[sorted.length - 1])));
+        }
+        boolean runsOk = true;
+        if (runner != null) {
+            BatchRunner.printSummary(err, runs, wallTime);
+            for (RunResult run : runs) {
+                runsOk &= run.getStatus() == RunResult.Status.OK;
+            }
+        }
+        return failed == 0 && runsOk;
+    }
+
+    @Override
+    public void close() {
+
+        executor.shutdownNow();
+        if (runner != null) {
+            runner.close();
+        }
+        compiler.close();
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// runs many main classes at once, each in its own class loader with captured output (-Mrunall)
+public final class BatchRunner implements Closeable {
+
+    // System.out and System.err while a batch runs, shared by all batches
+    private static final InheritableThreadLocal<ByteArrayOutputStream[]> captures = new InheritableThreadLocal<>();
+    // milliseconds a timed out run has to return after the interrupt
+    private static final long INTERRUPT_WAIT = 100;
+    private static int installed;
+    private static PrintStream stdout;
+    private static PrintStream stderr;
+
+    private final URL[] classPathUrls;
+    private final long timeout;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final ThreadFactory mainThreads;
+    private final List<RunTask> tasks = Collections.synchronizedList(new ArrayList<RunTask>());
+
+    // timeout 0 waits for main to return
+    public BatchRunner(List<String> classPaths, int threads, long timeout) throws IOException {
+
+        this.classPathUrls = Session.getFileUrls(classPaths).toArray(new URL[0]);
+        this.timeout = timeout;
+        this.permits = new Semaphore(threads);
+        this.executor = newExecutor(threads);
+        this.mainThreads = newMainThreadFactory();
+        install();
+    }
+
+    // virtual threads on JDK 21 and later (bounded by the permits), otherwise a fixed pool
+    private static ExecutorService newExecutor(int threads) {
+
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(threads, new DaemonThreadFactory("memjc-run"));
+        }
+    }
+
+    // main runs on a thread of its own, a run that ignores the interrupt of a timeout keeps only that thread
+    private static ThreadFactory newMainThreadFactory() {
+
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            return new DaemonThreadFactory("memjc-main");
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        public DaemonThreadFactory(String name) {
+
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    // runs main of className loaded from store, a cancelled or timed out run gives a result too
+    public Future<RunResult> submit(String className, List<String> args, ClassStore store) {
+
+        RunTask task = new RunTask(new Run(className, args, store));
+        tasks.add(task);
+        executor.execute(task);
+        return task;
+    }
+
+    public List<RunResult> getResults(List<Future<RunResult>> futures) throws InterruptedException {
+
+        List<RunResult> results = new ArrayList<>();
+        for (Future<RunResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        return results;
+    }
+
+    // cancels every run not finished yet
+    public void cancel() {
+
+        synchronized (tasks) {
+            for (RunTask task : tasks) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+
+        executor.shutdownNow();
+        uninstall();
+    }
+
+    // main of one class, the buffers keep the output of a cancelled run
+    private final class Run implements Callable<RunResult> {
+
+        private final String className;
+        private final List<String> args;
+        private final ClassStore store;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        private volatile long startTime;
+        private volatile boolean timedOut;
+
+        public Run(String className, List<String> args, ClassStore store) {
+
+            this.className = className;
+            this.args = args;
+            this.store = store;
+        }
+
+        @Override
+        public RunResult call() {
+
+            captures.set(new ByteArrayOutputStream[] {out, err});
+            RunResult.Status status = RunResult.Status.OK;
+            Throwable error = null;
+            try {
+                // a new loader per run, static state is not shared between runs
+                ClassLoader cl = new MemoryClassLoader(store, classPathUrls, Session.getParentClassLoader());
+                Runner runner = new Runner(null);
+                runner.invoke(runner.getMainMethod(className, cl), args);
+            } catch (InvocationTargetException ex) {
+                status = RunResult.Status.ERROR;
+                error = ex.getCause();
+            } catch (Exception | LinkageError ex) {
+                status = RunResult.Status.ERROR;
+                error = ex;
+            } finally {
+                captures.remove();
+            }
+            return newResult(status, error);
+        }
+
+        private RunResult newResult(RunResult.Status status, Throwable error) {
+
+            long time = startTime == 0 ? 0 : System.nanoTime() - startTime;
+            synchronized (out) {
+                return new RunResult(className, status, out.toString(), err.toString(), error, time);
+            }
+        }
+
+        private RunResult newCancelledResult() {
+
+            return newResult(timedOut ? RunResult.Status.TIMEOUT : RunResult.Status.CANCELLED, null);
+        }
+    }
+
+    private final class RunTask extends FutureTask<RunResult> {
+
+        private final Run run;
+
+        public RunTask(Run run) {
+
+            super(run);
+            this.run = run;
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                permits.acquire();
+            } catch (InterruptedException ex) {
+                cancel(false);
+                return;
+            }
+            try {
+                run.startTime = System.nanoTime();
+                Thread thread = mainThreads.newThread(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        RunTask.super.run();
+                    }
+                });
+                thread.start();
+                try {
+                    if (timeout > 0) {
+                        RunTask.super.get(timeout, TimeUnit.MILLISECONDS);
+                    } else {
+                        RunTask.super.get();
+                    }
+                } catch (TimeoutException ex) {
+                    run.timedOut = true;
+                    cancel(true);
+                } catch (InterruptedException ex) {
+                    // the batch was closed
+                    cancel(true);
+                } catch (CancellationException | ExecutionException ex) {
+                    // the result tells
+                }
+                if (run.timedOut && !join(thread)) {
+                    // the permit is released, the thread is left to the run
+                    System.err.println("memjc: " + run.className + " ignored the interrupt of its timeout,"
+                            + " its main thread is still running");
+                }
+            } finally {
+                permits.release();
+            }
+        }
+
+        // true if main returned after the interrupt
+        private boolean join(Thread thread) {
+
+            try {
+                thread.join(INTERRUPT_WAIT);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return !thread.isAlive();
+        }
+
+        @Override
+        public RunResult get() throws InterruptedException, ExecutionException {
+
+            try {
+                return super.get();
+            } catch (CancellationException ex) {
+                return run.newCancelledResult();
+            }
+        }
+
+        @Override
+        public RunResult get(long time, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+
+            try {
+                return super.get(time, unit);
+            } catch (CancellationException ex) {
+                return run.newCancelledResult();
+            }
+        }
+    }
+
+    private static synchronized void install() {
+
+        if (installed++ == 0) {
+            stdout = System.out;
+            stderr = System.err;
+            System.setOut(new PrintStream(new CaptureOutputStream(stdout, 0), true));
+            System.setErr(new PrintStream(new CaptureOutputStream(stderr, 1), true));
+        }
+    }
+
+    private static synchronized void uninstall() {
+
+        if (--installed == 0) {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    // writes to the buffer of the run on this thread (and threads it started), else to the console
+    private static class CaptureOutputStream extends OutputStream {
+
+        private final PrintStream console;
+        private final int index;
+
+        public CaptureOutputStream(PrintStream console, int index) {
+
+            this.console = console;
+            this.index = index;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            ByteArrayOutputStream[] buffers = captures.get();
+            if (buffers == null) {
+                console.write(b, off, len);
+                return;
+            }
+            // the out buffer guards both buffers (see newResult)
+            synchronized (buffers[0]) {
+                buffers[index].write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+
+            console.flush();
+        }
+    }
+
+    // counts by status, throughput and latency of a batch
+    public static void printSummary(PrintStream out, List<RunResult> results, long wallTime) {
+
+        int[] counts = new int[RunResult.Status.values().length];
+        long[] times = new long[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            counts[results.get(i).getStatus().ordinal()]++;
+            times[i] = results.get(i).getTime();
+        }
+        out.println(String.format("memjc runs: %d (ok %d, error %d, timeout %d, cancelled %d) in %.3f s, %.1f runs/s",
+                results.size(), counts[RunResult.Status.OK.ordinal()], counts[RunResult.Status.ERROR.ordinal()],
+                counts[RunResult.Status.TIMEOUT.ordinal()], counts[RunResult.Status.CANCELLED.ordinal()],
+                wallTime / 1000000000.0, wallTime == 0 ? 0.0 : results.size() * 1000000000.0 / wallTime));
+        if (times.length > 0) {
+            long[] sorted = Benchmark.sort(times);
+            out.println(String.format("  min  %12.3f ms", Benchmark.toMillis(sorted[0])));
+            out.println(String.format("  mean %12.3f ms", Benchmark.toMillis(Benchmark.mean(times))));
+            out.println(String.format("  p50  %12.3f ms", Benchmark.toMillis(Benchmark.percentile(sorted, 50))));
+            out.println(String.format("  p99  %12.3f ms", Benchmark.toMillis(Benchmark.percentile(sorted, 99))));
+            out.println(String.format("  max  %12.3f ms", Benchmark.toMillis(sorted[sorted.length - 1])));
+        }
+    }
+}
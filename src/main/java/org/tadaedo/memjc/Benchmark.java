@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+// runs the main class repeatedly and reports latency and allocation
+public final class Benchmark {
+
+    private final Session session;
+    private final int warmup;
+    private final int iterations;
+    private final boolean reload;
+    private final boolean json;
+
+    public Benchmark(Session session, int warmup, int iterations, boolean reload, boolean json) {
+
+        this.session = session;
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.reload = reload;
+        this.json = json;
+    }
+
+    public void run(String className, List<String> classArgs, List<String> classPaths) throws Exception {
+
+        Runner runner = new Runner(session);
+        Method method = null;
+        if (!reload) {
+            method = runner.getMainMethod(className, session.newClassLoader(classPaths));
+        }
+
+        long[] times = new long[iterations];
+        long[] allocations = new long[iterations];
+        for (int i = 0; i < warmup + iterations; i++) {
+            long allocated = getAllocatedBytes();
+            long start = System.nanoTime();
+
+            // a fresh class loader also measures class loading and static initialization
+            Method main = method;
+            if (main == null) {
+                main = runner.getMainMethod(className, session.newClassLoader(classPaths));
+            }
+            runner.invoke(main, classArgs);
+
+            long time = System.nanoTime() - start;
+            if (i >= warmup) {
+                times[i - warmup] = time;
+                allocations[i - warmup] = allocated < 0 ? -1 : getAllocatedBytes() - allocated;
+            }
+        }
+
+        if (json) {
+            printJson(System.err, className, times, allocations);
+        } else {
+            printText(System.err, className, times, allocations);
+        }
+    }
+
+    // bytes allocated by the current thread, -1 if the JVM can not tell
+    private static long getAllocatedBytes() {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private void printText(PrintStream out, String className, long[] times, long[] allocations) {
+
+        long[] sorted = sort(times);
+        out.println("Benchmark: " + className + " (warmup " + warmup + ", iterations " + iterations
+                + (reload ? ", reload" : "") + ")");
+        out.println(String.format("  min  %12.3f ms", toMillis(sorted[0])));
+        out.println(String.format("  mean %12.3f ms", toMillis(mean(times))));
+        out.println(String.format("  p50  %12.3f ms", toMillis(percentile(sorted, 50))));
+        out.println(String.format("  p99  %12.3f ms", toMillis(percentile(sorted, 99))));
+        out.println(String.format("  max  %12.3f ms", toMillis(sorted[sorted.length - 1])));
+        if (allocations[0] >= 0) {
+            out.println(String.format("  alloc/op %,d bytes (max %,d)", mean(allocations), sort(allocations)[allocations.length - 1]));
+        }
+    }
+
+    private void printJson(PrintStream out, String className, long[] times, long[] allocations) {
+
+        long[] sorted = sort(times);
+        StringBuilder buf = new StringBuilder();
+        buf.append("{\"class\":").append(Stats.quote(className));
+        buf.append(",\"warmup\":").append(warmup);
+        buf.append(",\"iterations\":").append(iterations);
+        buf.append(",\"reload\":").append(reload);
+        buf.append(",\"latencyNs\":{\"min\":").append(sorted[0]);
+        buf.append(",\"mean\":").append(mean(times));
+        buf.append(",\"p50\":").append(percentile(sorted, 50));
+        buf.append(",\"p99\":").append(percentile(sorted, 99));
+        buf.append(",\"max\":").append(sorted[sorted.length - 1]).append('}');
+        buf.append(",\"samples\":[");
+        for (int i = 0; i < times.length; i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append("{\"timeNs\":").append(times[i]);
+            buf.append(",\"allocatedBytes\":").append(allocations[i]).append('}');
+        }
+        buf.append("]}");
+        out.println(buf.toString());
+    }
+
+    static long[] sort(long[] values) {
+
+        long[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    static long mean(long[] values) {
+
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    // nearest-rank percentile
+    static long percentile(long[] sorted, int percent) {
+
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    static double toMillis(long nanos) {
+
+        return nanos / 1000000.0;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+// class data sharing archive of the classes loaded by a training run (-Mcds-dump)
+public final class CdsDump {
+
+    public static final String ARCHIVE_NAME = "memjc.jsa";
+    private static final String CLASS_LIST_SUFFIX = ".classlist";
+    // set for the training run, -Mcds-dump in an argument file is not run again
+    public static final String TRAINING_PROPERTY = "memjc.cds.training";
+
+    private final String archive;
+    // jars only, class data sharing does not support directories
+    private final String classPath;
+
+    public CdsDump(String archive) {
+
+        this(archive, System.getProperty("java.class.path"));
+    }
+
+    public CdsDump(String archive, String classPath) {
+
+        this.archive = archive;
+        this.classPath = classPath;
+    }
+
+    // next to memjc.jar, where bin/memjc looks for it
+    public static String getDefaultArchive() {
+
+        try {
+            File location = new File(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (location.isFile()) {
+                return new File(location.getParentFile(), ARCHIVE_NAME).getPath();
+            }
+        } catch (URISyntaxException | SecurityException ex) {
+            // no code source
+        }
+        return null;
+    }
+
+    // runs memjc with args in a new JVM and dumps the classes it loaded
+    public int dump(List<String> args) throws IOException, InterruptedException {
+
+        if (archive == null) {
+            throw new IllegalArgumentException("archive file is required when memjc is not run from a jar");
+        }
+
+        int version = getJavaVersion();
+        if (version >= 13) {
+            // dynamic archive on top of the JDK base archive
+            return exec(getCommand("-XX:ArchiveClassesAtExit=" + archive), args);
+        }
+        if (version >= 10) {
+            String classList = archive + CLASS_LIST_SUFFIX;
+            int status = exec(getCommand("-Xshare:off", "-XX:DumpLoadedClassList=" + classList), args);
+            if (status != Main.STATUS_OK) {
+                return status;
+            }
+            List<String> command = getCommand("-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+                    "-XX:SharedArchiveFile=" + archive);
+            if (version == 10) {
+                command.add(1, "-XX:+UseAppCDS");
+            }
+            status = exec(command, new ArrayList<String>());
+            new File(classList).delete();
+            return status;
+        }
+        throw new IllegalStateException("class data sharing of memjc classes requires Java 10 or later");
+    }
+
+    private List<String> getCommand(String... vmOptions) {
+
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        for (String vmOption : vmOptions) {
+            command.add(vmOption);
+        }
+        command.add("-D" + TRAINING_PROPERTY + "=true");
+        // the archive is used only with the same class path
+        command.add("-cp");
+        command.add(classPath);
+        return command;
+    }
+
+    private static int exec(List<String> command, List<String> args) throws IOException, InterruptedException {
+
+        List<String> commandArgs = new ArrayList<>(command);
+        if (!args.isEmpty()) {
+            commandArgs.add(Main.class.getName());
+            commandArgs.addAll(args);
+        }
+        Process process = new ProcessBuilder(commandArgs).inheritIO().start();
+        return process.waitFor();
+    }
+
+    private static int getJavaVersion() {
+
+        // 1.7, 1.8, 9, 10, ...
+        String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        return Integer.parseInt(version);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// writes class files in the background while javac compiles (-Mout),
+// a file with the same content is not written again and keeps its mtime
+public final class ClassFileWriter implements Closeable {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    // one thread keeps the writes of a path in order
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+
+            Thread thread = new Thread(r, "memjc-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final List<Future<Boolean>> pending = new ArrayList<>();
+    private final AtomicInteger writtenCount = new AtomicInteger();
+    private final AtomicInteger skippedCount = new AtomicInteger();
+
+    public void submit(final Path path, final byte[] bytes) {
+
+        Future<Boolean> future = executor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws IOException {
+
+                boolean written = write(path, bytes);
+                (written ? writtenCount : skippedCount).incrementAndGet();
+                return written;
+            }
+        });
+        synchronized (pending) {
+            pending.add(future);
+        }
+    }
+
+    // waits until every submitted file is on disk, the first failed write is thrown
+    public void await() throws IOException {
+
+        List<Future<Boolean>> futures;
+        synchronized (pending) {
+            futures = new ArrayList<>(pending);
+            pending.clear();
+        }
+        IOException error = null;
+        for (Future<Boolean> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                if (error == null) {
+                    error = ex.getCause() instanceof IOException
+                            ? (IOException) ex.getCause() : new IOException(ex.getCause());
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    public void resetCounts() {
+
+        writtenCount.set(0);
+        skippedCount.set(0);
+    }
+
+    public int getWrittenCount() {
+
+        return writtenCount.get();
+    }
+
+    public int getSkippedCount() {
+
+        return skippedCount.get();
+    }
+
+    @Override
+    public void close() {
+
+        executor.shutdown();
+    }
+
+    // false if the file already has the content, otherwise written to a temp file and renamed
+    public static boolean write(Path path, byte[] bytes) throws IOException {
+
+        if (Files.isRegularFile(path) && Files.size(path) == bytes.length
+                && Arrays.equals(hash(Files.readAllBytes(path)), hash(bytes))) {
+            return false;
+        }
+
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        // not createTempFile, its owner only permissions would stay on the class file
+        Path temp = dir.resolve(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.write(temp, bytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    private static byte[] hash(byte[] bytes) {
+
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM).digest(bytes);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
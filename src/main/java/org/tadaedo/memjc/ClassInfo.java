@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+// class names referenced from a class file constant pool
+public final class ClassInfo {
+
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final String CONSTANT_VALUE = "ConstantValue";
+
+    private final String className;
+    private final Set<String> dependencies;
+    private final boolean constants;
+
+    private ClassInfo(String className, Set<String> dependencies, boolean constants) {
+
+        this.className = className;
+        this.dependencies = dependencies;
+        this.constants = constants;
+    }
+
+    public String getClassName() {
+
+        return className;
+    }
+
+    public Set<String> getDependencies() {
+
+        return dependencies;
+    }
+
+    // true if the class has non-private compile-time constants, javac inlines them into the caller
+    public boolean hasConstants() {
+
+        return constants;
+    }
+
+    public static ClassInfo parse(byte[] bytes) throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != CLASS_MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor_version
+        in.readUnsignedShort(); // major_version
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNames = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                utf8[i] = in.readUTF();
+                break;
+            case 7: // Class
+                classNames[i] = in.readUnsignedShort();
+                break;
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                in.readUnsignedShort();
+                break;
+            case 15: // MethodHandle
+                in.readUnsignedByte();
+                in.readUnsignedShort();
+                break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                in.readInt();
+                break;
+            case 5: // Long
+            case 6: // Double
+                in.readLong();
+                i++;
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag: " + tag);
+            }
+        }
+
+        in.readUnsignedShort(); // access_flags
+        String className = toClassName(utf8[classNames[in.readUnsignedShort()]]);
+
+        Set<String> dependencies = new HashSet<>();
+        for (int nameIndex : classNames) {
+            if (nameIndex != 0) {
+                addDependency(dependencies, utf8[nameIndex]);
+            }
+        }
+        // types only used in descriptors
+        for (String value : utf8) {
+            if (value != null) {
+                addDescriptorDependencies(dependencies, value);
+            }
+        }
+        dependencies.remove(className);
+
+        return new ClassInfo(className, dependencies, hasConstantFields(in, utf8));
+    }
+
+    private static boolean hasConstantFields(DataInputStream in, String[] utf8) throws IOException {
+
+        in.readUnsignedShort(); // super_class
+        int interfaces = in.readUnsignedShort();
+        for (int i = 0; i < interfaces; i++) {
+            in.readUnsignedShort();
+        }
+
+        boolean constants = false;
+        int fields = in.readUnsignedShort();
+        for (int i = 0; i < fields; i++) {
+            int access = in.readUnsignedShort();
+            in.readUnsignedShort(); // name_index
+            in.readUnsignedShort(); // descriptor_index
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String name = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                in.skipBytes(length);
+                if ((access & ACC_PRIVATE) == 0 && CONSTANT_VALUE.equals(name)) {
+                    constants = true;
+                }
+            }
+        }
+        return constants;
+    }
+
+    private static void addDependency(Set<String> dependencies, String name) {
+
+        if (name.startsWith("[")) {
+            addDescriptorDependencies(dependencies, name);
+        } else {
+            dependencies.add(toClassName(name));
+        }
+    }
+
+    private static void addDescriptorDependencies(Set<String> dependencies, String descriptor) {
+
+        int start = descriptor.indexOf('L');
+        while (start != -1) {
+            int end = descriptor.indexOf(';', start);
+            if (end == -1) {
+                return;
+            }
+            String name = descriptor.substring(start + 1, end);
+            if (isInternalName(name)) {
+                dependencies.add(toClassName(name));
+                start = descriptor.indexOf('L', end);
+            } else {
+                start = descriptor.indexOf('L', start + 1);
+            }
+        }
+    }
+
+    private static boolean isInternalName(String name) {
+
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c != '/' && c != '$' && !Character.isJavaIdentifierPart(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String toClassName(String internalName) {
+
+        return internalName.replace('/', '.');
+    }
+}
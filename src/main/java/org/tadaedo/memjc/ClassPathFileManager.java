@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+// lists class path jars from a package index kept between compiles
+public final class ClassPathFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    private final Charset charset;
+    // jars checked for modification by this compile
+    private final Map<File, JarIndex> validIndexes = new HashMap<>();
+
+    public ClassPathFileManager(StandardJavaFileManager fileManager, Charset charset) {
+
+        super(fileManager);
+        this.charset = charset;
+    }
+
+    private static class JarEntryFile extends SimpleJavaFileObject {
+
+        private final JarIndex.Entry entry;
+        private final Charset charset;
+
+        public JarEntryFile(JarIndex.Entry entry, JavaFileObject.Kind kind, Charset charset) {
+
+            super(toUri(entry), kind);
+            this.entry = entry;
+            this.charset = charset;
+        }
+
+        // SimpleJavaFileObject needs a hierarchical URI
+        private static URI toUri(JarIndex.Entry entry) {
+
+            try {
+                String path = entry.getJar().getFile().toURI().getPath() + "!/" + entry.getName();
+                return new URI("jar", null, path, null);
+            } catch (URISyntaxException ex) {
+                throw new IllegalArgumentException(ex);
+            }
+        }
+
+        @Override
+        public String getName() {
+
+            return entry.getJar().getFile().getPath() + "(" + entry.getName() + ")";
+        }
+
+        @Override
+        public boolean isNameCompatible(String simpleName, JavaFileObject.Kind kind) {
+
+            String name = entry.getName();
+            String baseName = name.substring(name.lastIndexOf('/') + 1);
+            return kind == getKind() && baseName.equals(simpleName + kind.extension);
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+
+            return new ByteArrayInputStream(entry.getBytes());
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+
+            return new String(entry.getBytes(), charset);
+        }
+
+        @Override
+        public long getLastModified() {
+
+            return entry.getJar().getFile().lastModified();
+        }
+
+        public String getBinaryName() {
+
+            String name = entry.getName();
+            return name.substring(0, name.length() - kind.extension.length()).replace('/', '.');
+        }
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(JavaFileManager.Location location, String packageName,
+            Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+
+        Iterable<? extends File> classPath = fileManager.getLocation(StandardLocation.CLASS_PATH);
+        if (location != StandardLocation.CLASS_PATH || classPath == null) {
+            return super.list(location, packageName, kinds, recurse);
+        }
+
+        // in class path order, javac takes the first class found
+        List<JavaFileObject> files = new ArrayList<>();
+        for (File element : classPath) {
+            if (element.isDirectory()) {
+                listDirectory(element, packageName, kinds, recurse, files);
+            } else if (element.isFile()) {
+                JarIndex index = getJarIndex(element);
+                if (index == null) {
+                    return super.list(location, packageName, kinds, recurse);
+                }
+                listJar(index, packageName, kinds, recurse, files);
+            }
+        }
+        return files;
+    }
+
+    private void listDirectory(File root, String packageName, Set<JavaFileObject.Kind> kinds,
+            boolean recurse, List<JavaFileObject> files) {
+
+        File dir = packageName.isEmpty() ? root : new File(root, packageName.replace('.', File.separatorChar));
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        List<File> matches = new ArrayList<>();
+        for (File child : children) {
+            if (child.isDirectory()) {
+                if (recurse) {
+                    String subPackage = packageName.isEmpty() ? child.getName() : packageName + "." + child.getName();
+                    listDirectory(root, subPackage, kinds, recurse, files);
+                }
+            } else if (kinds.contains(getKind(child.getName()))) {
+                matches.add(child);
+            }
+        }
+        for (JavaFileObject file : fileManager.getJavaFileObjectsFromFiles(matches)) {
+            files.add(file);
+        }
+    }
+
+    private void listJar(JarIndex index, String packageName, Set<JavaFileObject.Kind> kinds,
+            boolean recurse, List<JavaFileObject> files) {
+
+        List<String> packageNames = new ArrayList<>();
+        if (recurse) {
+            for (String name : index.getPackageNames()) {
+                if (packageName.isEmpty() || name.equals(packageName) || name.startsWith(packageName + ".")) {
+                    packageNames.add(name);
+                }
+            }
+        } else {
+            packageNames.add(packageName);
+        }
+
+        for (String name : packageNames) {
+            for (JarIndex.Entry entry : index.list(name)) {
+                JavaFileObject.Kind kind = getKind(entry.getName());
+                if (kinds.contains(kind)) {
+                    files.add(new JarEntryFile(entry, kind, charset));
+                }
+            }
+        }
+    }
+
+    private JarIndex getJarIndex(File file) throws IOException {
+
+        File key = file.getAbsoluteFile();
+        if (validIndexes.containsKey(key)) {
+            return validIndexes.get(key);
+        }
+
+        JarIndex index = JarIndex.get(key);
+        validIndexes.put(key, index);
+        return index;
+    }
+
+    private static JavaFileObject.Kind getKind(String name) {
+
+        for (JavaFileObject.Kind kind : JavaFileObject.Kind.values()) {
+            if (kind != JavaFileObject.Kind.OTHER && name.endsWith(kind.extension)) {
+                return kind;
+            }
+        }
+        return JavaFileObject.Kind.OTHER;
+    }
+
+    @Override
+    public String inferBinaryName(JavaFileManager.Location location, JavaFileObject file) {
+
+        if (file instanceof JarEntryFile) {
+            return ((JarEntryFile) file).getBinaryName();
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+
+        if (a instanceof JarEntryFile || b instanceof JarEntryFile) {
+            return a.toUri().equals(b.toUri());
+        }
+        return super.isSameFile(a, b);
+    }
+}
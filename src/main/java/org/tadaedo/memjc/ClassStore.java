@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// compiled class bytes keyed by binary class name
+public final class ClassStore {
+
+    // a trim goes down to this part of the budget, the next puts do not trim again
+    private static final int LOW_WATER_PERCENT = 75;
+
+    private final ConcurrentMap<String, Entry> classes = new ConcurrentHashMap<>();
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private volatile long maxBytes;
+    private volatile boolean compress;
+    // bytes at which the next trim runs, above the budget after a trim that could not reach it
+    private long nextTrimBytes;
+
+    private static class Entry {
+
+        private final byte[] data;
+        private final int length;
+        private final boolean compressed;
+        // class loaders that defined the class
+        private final List<WeakReference<ClassLoader>> loaders;
+        private volatile long lastAccess;
+
+        public Entry(byte[] data, int length, boolean compressed, List<WeakReference<ClassLoader>> loaders,
+                long lastAccess) {
+
+            this.data = data;
+            this.length = length;
+            this.compressed = compressed;
+            this.loaders = loaders;
+            this.lastAccess = lastAccess;
+        }
+
+        // defined before, and every loader that defined it is gone
+        public boolean isUnreachable() {
+
+            synchronized (loaders) {
+                if (loaders.isEmpty()) {
+                    return false;
+                }
+                for (WeakReference<ClassLoader> loader : loaders) {
+                    if (loader.get() != null) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    public ClassStore() {
+
+        this(0, false);
+    }
+
+    // maxBytes 0 is unbounded
+    public ClassStore(long maxBytes, boolean compress) {
+
+        this.maxBytes = maxBytes;
+        this.compress = compress;
+    }
+
+    public void setLimit(long maxBytes, boolean compress) {
+
+        this.maxBytes = maxBytes;
+        this.compress = compress;
+        synchronized (this) {
+            nextTrimBytes = 0;
+        }
+        trim();
+    }
+
+    public void put(String className, byte[] bytes) {
+
+        Entry entry = new Entry(bytes, bytes.length, false, new ArrayList<WeakReference<ClassLoader>>(),
+                clock.incrementAndGet());
+        Entry previous = classes.put(className, entry);
+        liveBytes.addAndGet(bytes.length - (previous == null ? 0 : previous.data.length));
+        trim();
+    }
+
+    public byte[] get(String className) {
+
+        Entry entry = classes.get(className);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        return entry.compressed ? inflate(entry) : entry.data;
+    }
+
+    // called by a class loader that defined the class from this store
+    public void defined(String className, ClassLoader loader) {
+
+        Entry entry = classes.get(className);
+        if (entry != null) {
+            synchronized (entry.loaders) {
+                entry.loaders.add(new WeakReference<>(loader));
+            }
+        }
+    }
+
+    public boolean contains(String className) {
+
+        return classes.containsKey(className);
+    }
+
+    public void remove(String className) {
+
+        Entry entry = classes.remove(className);
+        if (entry != null) {
+            liveBytes.addAndGet(-entry.data.length);
+        }
+    }
+
+    public void clear() {
+
+        for (String className : new ArrayList<>(classes.keySet())) {
+            remove(className);
+        }
+    }
+
+    public Set<String> getClassNames() {
+
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    public int size() {
+
+        return classes.size();
+    }
+
+    // bytes held, compressed entries by their compressed size
+    public long getLiveBytes() {
+
+        return liveBytes.get();
+    }
+
+    public int getCompressedCount() {
+
+        int count = 0;
+        for (Entry entry : classes.values()) {
+            if (entry.compressed) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getEvictedCount() {
+
+        return evicted.get();
+    }
+
+    // over the budget: drop classes no live loader needs, then compress the coldest classes,
+    // down to the low water mark so that the cost is spread over many puts
+    private synchronized void trim() {
+
+        long max = maxBytes;
+        if (max <= 0 || liveBytes.get() <= Math.max(max, nextTrimBytes)) {
+            return;
+        }
+        long lowWater = max * LOW_WATER_PERCENT / 100;
+
+        // only the classes that can be dropped or compressed are sorted
+        List<Map.Entry<String, Entry>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : classes.entrySet()) {
+            if ((compress && !entry.getValue().compressed) || entry.getValue().isUnreachable()) {
+                candidates.add(entry);
+            }
+        }
+        if (!candidates.isEmpty()) {
+            Collections.sort(candidates, new Comparator<Map.Entry<String, Entry>>() {
+
+                @Override
+                public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+                    return Long.compare(o1.getValue().lastAccess, o2.getValue().lastAccess);
+                }
+            });
+            evict(candidates, lowWater);
+            if (compress) {
+                compress(candidates, lowWater);
+            }
+        }
+
+        // still over, the next trim waits for a quarter of the budget or of the live bytes more,
+        // a large compile then trims a logarithmic number of times
+        long live = liveBytes.get();
+        nextTrimBytes = live <= lowWater ? 0 : live + Math.max(max, live) / 4;
+    }
+
+    private void evict(List<Map.Entry<String, Entry>> candidates, long lowWater) {
+
+        for (Map.Entry<String, Entry> entry : candidates) {
+            if (liveBytes.get() <= lowWater) {
+                return;
+            }
+            if (entry.getValue().isUnreachable() && classes.remove(entry.getKey(), entry.getValue())) {
+                liveBytes.addAndGet(-entry.getValue().data.length);
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    private void compress(List<Map.Entry<String, Entry>> candidates, long lowWater) {
+
+        for (Map.Entry<String, Entry> entry : candidates) {
+            if (liveBytes.get() <= lowWater) {
+                return;
+            }
+            Entry raw = entry.getValue();
+            if (raw.compressed || classes.get(entry.getKey()) != raw) {
+                continue;
+            }
+            byte[] data = deflate(raw.data);
+            if (data.length < raw.data.length && classes.replace(entry.getKey(), raw,
+                    new Entry(data, raw.length, true, raw.loaders, raw.lastAccess))) {
+                liveBytes.addAndGet(data.length - raw.data.length);
+            }
+        }
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(Entry entry) {
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(entry.data);
+            byte[] bytes = new byte[entry.length];
+            int len = 0;
+            while (len < bytes.length && !inflater.finished()) {
+                int n = inflater.inflate(bytes, len, bytes.length - len);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                len += n;
+            }
+            return bytes;
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+// thin client of Daemon, it does not load the compiler classes
+public final class Client {
+
+    private static final String PORT_ENV = "MEMJC_PORT";
+
+    public static void main(String[] args) {
+
+        int status = run(args);
+        if (status != Main.STATUS_OK) {
+            System.exit(status);
+        }
+    }
+
+    public static int run(String[] args) {
+
+        int port = getPort();
+        String token;
+        Socket socket;
+        try {
+            // written by the daemon of this user
+            token = new String(Files.readAllBytes(Daemon.getTokenFile(port)), StandardCharsets.UTF_8);
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (IOException ex) {
+            // daemon is not running
+            return Main.run(args);
+        }
+
+        try (Socket s = socket) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            out.writeUTF(token);
+            out.writeUTF(System.getProperty("user.dir"));
+            // the default class path of the request, not of the daemon
+            String classPathEnv = System.getenv("CLASSPATH");
+            out.writeBoolean(classPathEnv != null);
+            if (classPathEnv != null) {
+                out.writeUTF(classPathEnv);
+            }
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            byte[] buf = new byte[8192];
+            while (true) {
+                int type = in.readByte();
+                switch (type) {
+                case Daemon.FRAME_EXIT:
+                    System.out.flush();
+                    System.err.flush();
+                    return in.readInt();
+                case Daemon.FRAME_OUT:
+                case Daemon.FRAME_ERR:
+                    int len = in.readInt();
+                    if (len > buf.length) {
+                        buf = new byte[len];
+                    }
+                    in.readFully(buf, 0, len);
+                    PrintStream stream = type == Daemon.FRAME_OUT ? System.out : System.err;
+                    stream.write(buf, 0, len);
+                    break;
+                default:
+                    throw new IOException("Unknown frame: " + type);
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("memjc daemon: " + ex.toString());
+            return Main.STATUS_ERROR;
+        }
+    }
+
+    private static int getPort() {
+
+        String port = System.getenv(PORT_ENV);
+        if (port == null || port.isEmpty()) {
+            return Daemon.DEFAULT_PORT;
+        }
+        return Integer.parseInt(port);
+    }
+}
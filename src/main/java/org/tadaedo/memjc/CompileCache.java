@@ -0,0 +1,443 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+// compiled classes on disk keyed by sources, javac options, class path and JDK (-Mcache)
+public final class CompileCache {
+
+    private static final int CACHE_MAGIC = 0x4D4A4332; // MJC2
+    private static final String CACHE_SUFFIX = ".mjc";
+    private static final String STATS_FILE = "stats.properties";
+    private static final String STATS_LOCK_FILE = "stats.lock";
+    private static final Object STATS_MONITOR = new Object();
+    // hits and misses by cache directory not written yet, guarded by STATS_MONITOR
+    private static final Map<Path, long[]> pendingStats = new HashMap<>();
+    private static boolean flushAtExit;
+    private static final String HASH_ALGORITHM = "SHA-256";
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private final Path dir;
+    private final long maxBytes;
+    // classes written by this compile
+    private final Map<String, String> outputs = new LinkedHashMap<>();
+    private final Map<String, String> sources = new LinkedHashMap<>();
+    // class files javac read from class path directories
+    private final Map<String, String> classPathFiles = new LinkedHashMap<>();
+    private long hits;
+    private long misses;
+
+    public CompileCache(Path dir, long maxBytes) {
+
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static Path getDefaultDirectory() {
+
+        return Paths.get(System.getProperty("user.home"), ".memjc", "cache");
+    }
+
+    public long getHits() {
+
+        return hits;
+    }
+
+    public long getMisses() {
+
+        return misses;
+    }
+
+    public String getKey(List<String> opts, List<String> filePaths) throws IOException {
+
+        MessageDigest digest = newDigest();
+        update(digest, System.getProperty("java.home"));
+        update(digest, System.getProperty("java.version"));
+        update(digest, System.getProperty("java.vm.version"));
+
+        for (String opt : opts) {
+            update(digest, opt);
+        }
+
+        // class path jars by size and time, the files read from directories are checked on a hit
+        String[] cps = new String[] {"-cp", "-classpath" };
+        for (String cp : cps) {
+            int cpIndex = opts.indexOf(cp);
+            if (cpIndex != -1 && (cpIndex + 1) < opts.size()) {
+                for (String classPath : opts.get(cpIndex + 1).split(File.pathSeparator)) {
+                    File file = new File(classPath);
+                    if (file.isFile()) {
+                        update(digest, file.length() + ":" + file.lastModified());
+                    }
+                }
+            }
+        }
+
+        for (String path : filePaths) {
+            update(digest, Paths.get(path).toAbsolutePath().normalize().toString());
+            update(digest, hash(Paths.get(path)));
+        }
+        return toHex(digest.digest());
+    }
+
+    // loads the cached classes into the memory filesystem
+    public boolean load(String key, Session session) throws IOException {
+
+        Path file = dir.resolve(key + CACHE_SUFFIX);
+        boolean hit = Files.isRegularFile(file) && read(file, session);
+        if (hit) {
+            hits++;
+            // recently used
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } else {
+            misses++;
+        }
+        addStats(dir, hit);
+        return hit;
+    }
+
+    private boolean read(Path file, Session session) throws IOException {
+
+        // the whole entry is parsed before the classes go to the session, a broken entry is a miss
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        Map<String, URI> classDirs = new LinkedHashMap<>();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.getInt() != CACHE_MAGIC) {
+                return false;
+            }
+
+            // sources compiled implicitly (found on the source path) must be unchanged
+            int sourceCount = buffer.getInt();
+            for (int i = 0; i < sourceCount; i++) {
+                Path source = Paths.get(readString(buffer));
+                String hash = readString(buffer);
+                if (!Files.isRegularFile(source) || !hash.equals(hash(source))) {
+                    return false;
+                }
+            }
+
+            // class files read from class path directories must be unchanged
+            int classPathFileCount = buffer.getInt();
+            for (int i = 0; i < classPathFileCount; i++) {
+                Path classPathFile = Paths.get(readString(buffer));
+                String stamp = readString(buffer);
+                if (!stamp.equals(getStamp(classPathFile))) {
+                    return false;
+                }
+            }
+
+            int classCount = buffer.getInt();
+            for (int i = 0; i < classCount; i++) {
+                URI classDir = URI.create(readString(buffer));
+                String className = readString(buffer);
+                classDirs.put(className, classDir);
+                classes.put(className, readBytes(buffer));
+            }
+            if (buffer.hasRemaining()) {
+                return false;
+            }
+        } catch (RuntimeException ex) {
+            System.err.println("memjc: ignored broken cache entry " + file + ": " + ex);
+            return false;
+        }
+
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            try (OutputStream out = session.getOutputStream(classDirs.get(entry.getKey()), entry.getKey())) {
+                out.write(entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    public OutputStream getOutputStream(final URI source, final URI classDir, final String className,
+            OutputStream stream) {
+
+        return new FilterOutputStream(stream) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+
+                super.close();
+                synchronized (CompileCache.this) {
+                    outputs.put(className, classDir.toString());
+                    sources.put(Paths.get(source).toString(), null);
+                }
+            }
+        };
+    }
+
+    // called by Compiler when javac reads a class file of a class path directory
+    public synchronized void readClassPathFile(Path path) {
+
+        classPathFiles.put(path.toString(), null);
+    }
+
+    public synchronized void store(String key, List<String> filePaths, Session session) throws IOException {
+
+        for (String path : filePaths) {
+            sources.remove(Paths.get(path).toAbsolutePath().normalize().toString());
+        }
+
+        // a bounded class store may have dropped a class already, the compile is not cached then
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (String className : outputs.keySet()) {
+            byte[] bytes = session.getClassStore().get(className);
+            if (bytes == null) {
+                flushStats(dir);
+                return;
+            }
+            classes.put(className, bytes);
+        }
+
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(CACHE_MAGIC);
+                out.writeInt(sources.size());
+                for (String source : sources.keySet()) {
+                    writeString(out, source);
+                    writeString(out, hash(Paths.get(source)));
+                }
+                out.writeInt(classPathFiles.size());
+                for (String classPathFile : classPathFiles.keySet()) {
+                    writeString(out, classPathFile);
+                    writeString(out, getStamp(Paths.get(classPathFile)));
+                }
+                out.writeInt(outputs.size());
+                for (Map.Entry<String, String> output : outputs.entrySet()) {
+                    byte[] bytes = classes.get(output.getKey());
+                    writeString(out, output.getValue());
+                    writeString(out, output.getKey());
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            Files.move(temp, dir.resolve(key + CACHE_SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        evict();
+        flushStats(dir);
+    }
+
+    // least recently used entries first, until the cache fits
+    private void evict() throws IOException {
+
+        final Map<Path, BasicFileAttributes> entries = new LinkedHashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + CACHE_SUFFIX)) {
+            for (Path path : stream) {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                entries.put(path, attrs);
+                total += attrs.size();
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        List<Path> paths = new ArrayList<>(entries.keySet());
+        Collections.sort(paths, new Comparator<Path>() {
+
+            @Override
+            public int compare(Path o1, Path o2) {
+                return entries.get(o1).lastModifiedTime().compareTo(entries.get(o2).lastModifiedTime());
+            }
+        });
+        for (Path path : paths) {
+            if (total <= maxBytes) {
+                break;
+            }
+            try {
+                Files.delete(path);
+            } catch (NoSuchFileException ex) {
+                // removed by another memjc
+            }
+            total -= entries.get(path).size();
+        }
+    }
+
+    // counted in memory, added to stats.properties on a store and at exit (no disk I/O on a hit)
+    private static void addStats(Path dir, boolean hit) {
+
+        synchronized (STATS_MONITOR) {
+            long[] counts = pendingStats.get(dir);
+            if (counts == null) {
+                counts = new long[2];
+                pendingStats.put(dir, counts);
+            }
+            counts[hit ? 0 : 1]++;
+            if (!flushAtExit) {
+                flushAtExit = true;
+                Runtime.getRuntime().addShutdownHook(new Thread("memjc-cache-stats") {
+
+                    @Override
+                    public void run() {
+
+                        synchronized (STATS_MONITOR) {
+                            for (Path dir : new ArrayList<>(pendingStats.keySet())) {
+                                try {
+                                    flushStats(dir);
+                                } catch (IOException ex) {
+                                    // totals only
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    // hit and miss totals of the cache directory, other memjc processes update them too
+    private static void flushStats(Path dir) throws IOException {
+
+        Path file = dir.resolve(STATS_FILE);
+        Properties stats = new Properties();
+        // a file lock is held by the JVM, threads of a batch wait on the monitor first
+        synchronized (STATS_MONITOR) {
+            long[] counts = pendingStats.remove(dir);
+            if (counts == null) {
+                return;
+            }
+            Files.createDirectories(dir);
+            try (FileChannel channel = FileChannel.open(dir.resolve(STATS_LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                // released when the channel is closed
+                channel.lock();
+                if (Files.isRegularFile(file)) {
+                    try (InputStream in = Files.newInputStream(file)) {
+                        stats.load(in);
+                    }
+                }
+                stats.setProperty("hits", Long.toString(Long.parseLong(stats.getProperty("hits", "0")) + counts[0]));
+                stats.setProperty("misses",
+                        Long.toString(Long.parseLong(stats.getProperty("misses", "0")) + counts[1]));
+
+                Path temp = dir.resolve(STATS_FILE + "." + UUID.randomUUID() + ".tmp");
+                try {
+                    try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW)) {
+                        stats.store(out, "memjc compile cache");
+                    }
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalStateException("bad length " + length + " at " + buffer.position());
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // size and modification time, empty if the file is gone
+    private static String getStamp(Path path) throws IOException {
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+        } catch (NoSuchFileException ex) {
+            return "";
+        }
+    }
+
+    private static String hash(Path path) throws IOException {
+
+        return toHex(newDigest().digest(Files.readAllBytes(path)));
+    }
+
+    private static void update(MessageDigest digest, String value) {
+
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+
+        return String.format("%0" + (hash.length * 2) + "x", new BigInteger(1, hash));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.util.Locale;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+// javac diagnostic detached from the compiler
+public final class CompileDiagnostic {
+
+    private final Diagnostic.Kind kind;
+    private final String source;
+    private final long line;
+    private final long column;
+    private final String code;
+    private final String message;
+
+    public CompileDiagnostic(Diagnostic.Kind kind, String source, long line, long column, String code,
+            String message) {
+
+        this.kind = kind;
+        this.source = source;
+        this.line = line;
+        this.column = column;
+        this.code = code;
+        this.message = message;
+    }
+
+    public static CompileDiagnostic of(Diagnostic<? extends JavaFileObject> diagnostic) {
+
+        JavaFileObject file = diagnostic.getSource();
+        return new CompileDiagnostic(diagnostic.getKind(), file == null ? null : file.getName(),
+                diagnostic.getLineNumber(), diagnostic.getColumnNumber(), diagnostic.getCode(),
+                diagnostic.getMessage(null));
+    }
+
+    public Diagnostic.Kind getKind() {
+
+        return kind;
+    }
+
+    // null if the diagnostic is not about a source
+    public String getSource() {
+
+        return source;
+    }
+
+    // Diagnostic.NOPOS if unknown
+    public long getLine() {
+
+        return line;
+    }
+
+    // Diagnostic.NOPOS if unknown
+    public long getColumn() {
+
+        return column;
+    }
+
+    public String getCode() {
+
+        return code;
+    }
+
+    public String getMessage() {
+
+        return message;
+    }
+
+    // file:line:column: kind: message, the column is 1 based as javac counts it
+    @Override
+    public String toString() {
+
+        StringBuilder buf = new StringBuilder();
+        if (source != null) {
+            buf.append(source).append(':');
+            if (line != Diagnostic.NOPOS) {
+                buf.append(line).append(':');
+                if (column != Diagnostic.NOPOS) {
+                    buf.append(column).append(':');
+                }
+            }
+            buf.append(' ');
+        }
+        // javac prints a mandatory warning as a warning
+        String kindName = kind == Diagnostic.Kind.MANDATORY_WARNING ? "warning" : kind.name();
+        buf.append(kindName.toLowerCase(Locale.ROOT)).append(": ").append(message);
+        return buf.toString();
+    }
+}
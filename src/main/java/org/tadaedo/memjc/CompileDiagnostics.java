@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+
+// diagnostics of a compile in a bounded buffer (-Mdiagnostics),
+// the compile is aborted when the error threshold is reached (-Mfailfast)
+public final class CompileDiagnostics implements DiagnosticListener<JavaFileObject> {
+
+    public static final int DEFAULT_MAX_DIAGNOSTICS = 100;
+
+    private final int maxDiagnostics;
+    private final int failFastErrors;
+    private final List<CompileDiagnostic> diagnostics = new ArrayList<>();
+    private int errors;
+    private int warnings;
+    private int dropped;
+    private boolean aborted;
+
+    // failFastErrors 0 compiles to the end
+    public CompileDiagnostics(int maxDiagnostics, int failFastErrors) {
+
+        this.maxDiagnostics = maxDiagnostics;
+        this.failFastErrors = failFastErrors;
+    }
+
+    // thrown out of javac to stop the compilation task
+    static final class FailFastException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public FailFastException(int errors) {
+
+            super(errors + " errors");
+        }
+    }
+
+    static boolean isFailFast(Throwable ex) {
+
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FailFastException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+
+        add(CompileDiagnostic.of(diagnostic));
+    }
+
+    public synchronized void add(CompileDiagnostic diagnostic) {
+
+        if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+            errors++;
+        } else if (diagnostic.getKind() == Diagnostic.Kind.WARNING
+                || diagnostic.getKind() == Diagnostic.Kind.MANDATORY_WARNING) {
+            warnings++;
+        }
+
+        if (diagnostics.size() < maxDiagnostics) {
+            diagnostics.add(diagnostic);
+        } else {
+            dropped++;
+        }
+
+        if (failFastErrors > 0 && errors >= failFastErrors) {
+            aborted = true;
+            throw new FailFastException(errors);
+        }
+    }
+
+    public synchronized List<CompileDiagnostic> getDiagnostics() {
+
+        return new ArrayList<>(diagnostics);
+    }
+
+    public synchronized int getErrorCount() {
+
+        return errors;
+    }
+
+    public synchronized int getWarningCount() {
+
+        return warnings;
+    }
+
+    // diagnostics over the buffer size, counted but not kept
+    public synchronized int getDroppedCount() {
+
+        return dropped;
+    }
+
+    public synchronized boolean isAborted() {
+
+        return aborted;
+    }
+
+    public synchronized void clear() {
+
+        diagnostics.clear();
+        errors = 0;
+        warnings = 0;
+        dropped = 0;
+        aborted = false;
+    }
+
+    public synchronized void print(PrintStream out) {
+
+        for (CompileDiagnostic diagnostic : diagnostics) {
+            out.println(diagnostic);
+        }
+        StringBuilder buf = new StringBuilder();
+        buf.append(errors).append(errors == 1 ? " error" : " errors");
+        buf.append(", ").append(warnings).append(warnings == 1 ? " warning" : " warnings");
+        if (dropped > 0) {
+            buf.append(" (").append(dropped).append(" not shown)");
+        }
+        if (aborted) {
+            buf.append(", compile aborted");
+        }
+        out.println(buf);
+    }
+
+    public synchronized void printJson(PrintStream out) {
+
+        StringBuilder buf = new StringBuilder("{\"errors\":").append(errors);
+        buf.append(",\"warnings\":").append(warnings);
+        buf.append(",\"dropped\":").append(dropped);
+        buf.append(",\"aborted\":").append(aborted);
+        buf.append(",\"diagnostics\":[");
+        for (int i = 0; i < diagnostics.size(); i++) {
+            CompileDiagnostic diagnostic = diagnostics.get(i);
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append("{\"kind\":").append(Stats.quote(diagnostic.getKind().name()));
+            buf.append(",\"source\":").append(quote(diagnostic.getSource()));
+            buf.append(",\"line\":").append(diagnostic.getLine());
+            buf.append(",\"column\":").append(diagnostic.getColumn());
+            buf.append(",\"code\":").append(quote(diagnostic.getCode()));
+            buf.append(",\"message\":").append(quote(diagnostic.getMessage()));
+            buf.append('}');
+        }
+        buf.append("]}");
+        out.println(buf);
+    }
+
+    private static String quote(String value) {
+
+        return value == null ? "null" : Stats.quote(value);
+    }
+}
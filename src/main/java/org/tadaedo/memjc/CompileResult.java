@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// classes and diagnostics of an InMemoryCompiler compile
+public final class CompileResult {
+
+    private final boolean success;
+    private final Map<String, byte[]> classes;
+    private final List<CompileDiagnostic> diagnostics;
+    private final URL[] classPathUrls;
+    private final ClassLoader parent;
+    private ClassLoader classLoader;
+
+    CompileResult(boolean success, Map<String, byte[]> classes, List<CompileDiagnostic> diagnostics,
+            URL[] classPathUrls, ClassLoader parent) {
+
+        this.success = success;
+        this.classes = Collections.unmodifiableMap(classes);
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+        this.classPathUrls = classPathUrls;
+        this.parent = parent;
+    }
+
+    public boolean isSuccess() {
+
+        return success;
+    }
+
+    // class bytes keyed by binary class name
+    public Map<String, byte[]> getClasses() {
+
+        return classes;
+    }
+
+    public List<CompileDiagnostic> getDiagnostics() {
+
+        return diagnostics;
+    }
+
+    // loads the compiled classes, then the compile class path
+    public synchronized ClassLoader getClassLoader() {
+
+        if (classLoader == null) {
+            ClassStore store = new ClassStore();
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                store.put(entry.getKey(), entry.getValue());
+            }
+            classLoader = new MemoryClassLoader(store, classPathUrls, parent);
+        }
+        return classLoader;
+    }
+}
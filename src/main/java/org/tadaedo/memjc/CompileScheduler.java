@@ -0,0 +1,354 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// runs Compiler.compile for many callers of one JVM, at most concurrency compiles at once,
+// queued interactive requests go before background ones and equal requests in flight share one compile
+public final class CompileScheduler implements Closeable {
+
+    public enum Priority {
+        INTERACTIVE, NORMAL, BACKGROUND
+    }
+
+    private final ThreadPoolExecutor executor;
+    // compiles queued or running, keyed by javac options and sources
+    private final Map<String, Job> inFlight = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private long submittedCount;
+    private long sharedCount;
+    private long completedCount;
+    private long cancelledCount;
+    private int maxQueueDepth;
+    private long totalWaitTime;
+    private long maxWaitTime;
+    private long startedCount;
+
+    public CompileScheduler(int concurrency) {
+
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+
+                        Thread thread = new Thread(r, "memjc-compile");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    // compiles the sources in a new session, the result holds the classes and all diagnostics
+    public Future<CompileResult> submit(List<String> opts, List<String> filePaths, Priority priority) {
+
+        String key = opts + "\u0000" + filePaths;
+        synchronized (this) {
+            submittedCount++;
+            Job job = inFlight.get(key);
+            if (job != null) {
+                sharedCount++;
+                job.waiters++;
+                // an interactive caller moves a queued background compile up
+                if (priority.compareTo(job.priority) < 0 && executor.getQueue().remove(job)) {
+                    job.priority = priority;
+                    executor.execute(job);
+                }
+                return new Request(job);
+            }
+
+            job = new Job(key, new Compile(new ArrayList<>(opts), new ArrayList<>(filePaths)), priority,
+                    sequence.getAndIncrement());
+            inFlight.put(key, job);
+            executor.execute(job);
+            maxQueueDepth = Math.max(maxQueueDepth, executor.getQueue().size());
+            return new Request(job);
+        }
+    }
+
+    public Future<CompileResult> submit(List<String> opts, List<String> filePaths) {
+
+        return submit(opts, filePaths, Priority.NORMAL);
+    }
+
+    // compiles waiting for a thread
+    public int getQueueDepth() {
+
+        return executor.getQueue().size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+
+        return maxQueueDepth;
+    }
+
+    public int getRunningCount() {
+
+        return executor.getActiveCount();
+    }
+
+    public synchronized long getSubmittedCount() {
+
+        return submittedCount;
+    }
+
+    // requests that joined a compile already in flight
+    public synchronized long getSharedCount() {
+
+        return sharedCount;
+    }
+
+    public synchronized long getCompletedCount() {
+
+        return completedCount;
+    }
+
+    // compiles cancelled by all their callers
+    public synchronized long getCancelledCount() {
+
+        return cancelledCount;
+    }
+
+    // nanoseconds from submit until a thread started the compile
+    public synchronized long getMeanWaitTime() {
+
+        return startedCount == 0 ? 0 : totalWaitTime / startedCount;
+    }
+
+    public synchronized long getMaxWaitTime() {
+
+        return maxWaitTime;
+    }
+
+    @Override
+    public void close() {
+
+        executor.shutdownNow();
+    }
+
+    private synchronized void started(Job job) {
+
+        long wait = System.nanoTime() - job.submitTime;
+        startedCount++;
+        totalWaitTime += wait;
+        maxWaitTime = Math.max(maxWaitTime, wait);
+    }
+
+    private synchronized void finished(Job job, boolean cancelled) {
+
+        if (inFlight.get(job.key) == job) {
+            inFlight.remove(job.key);
+        }
+        if (cancelled) {
+            cancelledCount++;
+        } else {
+            completedCount++;
+        }
+    }
+
+    // the last caller to cancel cancels the compile
+    private synchronized void cancelled(Job job, boolean mayInterruptIfRunning) {
+
+        if (--job.waiters == 0) {
+            executor.getQueue().remove(job);
+            job.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    private static final class Compile implements Callable<CompileResult> {
+
+        private final List<String> opts;
+        private final List<String> filePaths;
+
+        public Compile(List<String> opts, List<String> filePaths) {
+
+            this.opts = opts;
+            this.filePaths = filePaths;
+        }
+
+        @Override
+        public CompileResult call() throws IOException {
+
+            try (Session session = new Session()) {
+                Compiler compiler = new Compiler(session, true, false);
+                CompileDiagnostics diagnostics = new CompileDiagnostics(Integer.MAX_VALUE, 0);
+                compiler.setDiagnostics(diagnostics);
+                boolean success = compiler.compile(opts, filePaths);
+
+                ClassStore store = session.getClassStore();
+                Map<String, byte[]> classes = new HashMap<>();
+                for (String className : store.getClassNames()) {
+                    classes.put(className, store.get(className));
+                }
+                List<URL> urls = Session.getFileUrls(getClassPaths(opts));
+                return new CompileResult(success, classes, diagnostics.getDiagnostics(), urls.toArray(new URL[0]),
+                        Session.getParentClassLoader());
+            }
+        }
+
+        private static List<String> getClassPaths(List<String> opts) {
+
+            List<String> classPaths = new ArrayList<>();
+            for (int i = 0; i + 1 < opts.size(); i++) {
+                if (opts.get(i).equals("-cp") || opts.get(i).equals("-classpath")) {
+                    classPaths.addAll(Arrays.asList(opts.get(i + 1).split(File.pathSeparator)));
+                }
+            }
+            return classPaths;
+        }
+    }
+
+    // one compile, ordered by priority then submit order
+    private final class Job extends FutureTask<CompileResult> implements Comparable<Job> {
+
+        private final String key;
+        private final long seq;
+        private final long submitTime = System.nanoTime();
+        private volatile Priority priority;
+        // guarded by the scheduler
+        private int waiters = 1;
+
+        public Job(String key, Compile compile, Priority priority, long seq) {
+
+            super(compile);
+            this.key = key;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+
+            if (!isDone()) {
+                started(this);
+            }
+            super.run();
+        }
+
+        // counted before the callers wake up, done() runs after them
+        @Override
+        protected void set(CompileResult result) {
+
+            // a compile cancelled while running is counted by done()
+            if (!isCancelled()) {
+                finished(this, false);
+            }
+            super.set(result);
+        }
+
+        @Override
+        protected void setException(Throwable ex) {
+
+            // a compile cancelled while running is counted by done()
+            if (!isCancelled()) {
+                finished(this, false);
+            }
+            super.setException(ex);
+        }
+
+        @Override
+        protected void done() {
+
+            if (isCancelled()) {
+                finished(this, true);
+            }
+        }
+
+        @Override
+        public int compareTo(Job o) {
+
+            int c = priority.compareTo(o.priority);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    // the view of one caller, cancelling it leaves the compile to the other callers
+    private final class Request implements Future<CompileResult> {
+
+        private final Job job;
+        private volatile boolean cancelled;
+
+        public Request(Job job) {
+
+            this.job = job;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+
+            synchronized (CompileScheduler.this) {
+                if (cancelled || job.isDone()) {
+                    return false;
+                }
+                cancelled = true;
+                cancelled(job, mayInterruptIfRunning);
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+
+            return cancelled || job.isDone();
+        }
+
+        @Override
+        public CompileResult get() throws InterruptedException, ExecutionException {
+
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            return job.get();
+        }
+
+        @Override
+        public CompileResult get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            return job.get(timeout, unit);
+        }
+    }
+}
@@ -15,31 +15,54 @@
  */
 package org.tadaedo.memjc;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.NestingKind;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.DiagnosticListener;
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
+import javax.tools.ForwardingJavaFileObject;
 import javax.tools.JavaCompiler;
 import javax.tools.JavaCompiler.CompilationTask;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
 import javax.tools.ToolProvider;
 
 public final class Compiler {
 
+    // kept resident between compiles (see Daemon)
+    private static volatile JavaCompiler systemCompiler;
+
+    private final Session session;
+    private final Incremental incrementalState;
     private final boolean cacheClass;
+    private final boolean incremental;
+    private int parallelism = 1;
+    private Stats stats;
+    private CompileCache cache;
+    private CompileDiagnostics diagnostics;
 
     public Compiler() {
 
@@ -48,127 +71,445 @@ public final class Compiler {
 
     public Compiler(boolean cacheClass) {
 
-        this.cacheClass = cacheClass;
+        this(cacheClass, false);
+    }
+
+    public Compiler(boolean cacheClass, boolean incremental) {
+
+        this(new Session(), cacheClass, incremental);
+    }
+
+    public Compiler(Session session, boolean cacheClass, boolean incremental) {
+
+        this.session = session;
+        this.incrementalState = session.getIncremental();
+        this.cacheClass = cacheClass || incremental;
+        this.incremental = incremental;
+    }
+
+    public Session getSession() {
+
+        return session;
+    }
+
+    // compile independent partitions of the sources on this many threads
+    public void setParallelism(int parallelism) {
+
+        this.parallelism = parallelism;
+    }
+
+    // collect phase times and class output bytes
+    public void setStats(Stats stats) {
+
+        this.stats = stats;
+    }
+
+    // diagnostics go to the collector instead of javac printing them, null prints them
+    public void setDiagnostics(CompileDiagnostics diagnostics) {
+
+        this.diagnostics = diagnostics;
+    }
+
+    public void setCache(CompileCache cache) {
+
+        // incremental compiles write only part of the classes
+        this.cache = cacheClass && !incremental ? cache : null;
     }
 
     public boolean compile(List<String> opts, List<String> filePaths) throws IOException {
 
-        beforeCompiler();
+        String cacheKey = null;
+        if (cache != null) {
+            cacheKey = cache.getKey(opts, filePaths);
+            boolean hit = cache.load(cacheKey, session);
+            if (stats != null) {
+                stats.setCounter("cache hits", cache.getHits());
+                stats.setCounter("cache misses", cache.getMisses());
+            }
+            if (hit) {
+                return true;
+            }
+        }
+
+        List<String> units = beforeCompiler(opts, filePaths);
+
+        boolean ret = true;
+        if (parallelism > 1 && units.size() > 1) {
+            ret = compileParallel(opts, units);
+        } else if (!units.isEmpty() || filePaths.isEmpty()) {
+            ret = call(getTask(opts, units, session.getStandardFileManager(opts), diagnostics, null));
+        }
 
-        CompilationTask task = getTask(opts, filePaths);
-        boolean ret = task.call();
+        afterCompiler(ret);
 
-        afterCompiler();
+        if (cache != null && ret) {
+            cache.store(cacheKey, filePaths, session);
+        }
 
         return ret;
     }
 
-    private void beforeCompiler() {
+    private List<String> beforeCompiler(List<String> opts, List<String> filePaths) throws IOException {
 
+        if (incremental) {
+            return incrementalState.prepare(opts, filePaths);
+        }
+        return filePaths;
     }
 
-    private void afterCompiler() throws IOException {
+    private void afterCompiler(boolean ret) throws IOException {
 
+        if (incremental) {
+            incrementalState.finish(ret);
+        }
     }
 
-    private CompilationTask getTask(final List<String> opts, final List<String> filePaths) throws IOException {
+    private boolean compileParallel(final List<String> opts, List<String> filePaths) throws IOException {
 
-        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-        if (compiler == null) {
-            throw new RuntimeException("use JDK_HOME/bin/java");
+        List<List<String>> partitions = new SourcePartitioner().split(filePaths, parallelism);
+        if (partitions.size() < 2) {
+            return call(getTask(opts, filePaths, session.getStandardFileManager(opts), diagnostics, null));
         }
 
-        try (StandardJavaFileManager stdfm = compiler.getStandardFileManager(null, null, null)) {
-            JavaFileManager fm = new ForwardingJavaFileManager(stdfm) {
+        List<Callable<Partition>> tasks = new ArrayList<>();
+        for (final List<String> partition : partitions) {
+            tasks.add(new Callable<Partition>() {
 
                 @Override
-                public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location,
-                        final String className, JavaFileObject.Kind kind, final FileObject sibling) throws IOException {
+                public Partition call() throws IOException {
+
+                    // kept apart, errors of a partition may go away when compiled together
+                    DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+                    // the standard file manager is not thread safe, one like Session.getStandardFileManager
+                    try (StandardJavaFileManager stdfm = getSystemCompiler().getStandardFileManager(collector, null,
+                            getCharset(opts))) {
+                        // classes are written when every partition compiled, else the full compile writes them
+                        List<BufferedClass> classes = new ArrayList<>();
+                        boolean ret = getTask(opts, partition, stdfm, collector, classes).call();
+                        return new Partition(ret, collector.getDiagnostics(), classes);
+                    }
+                }
+            });
+        }
+
+        List<Partition> results = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<Partition> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        for (Partition result : results) {
+            if (!result.success) {
+                // unresolved references across partitions or real errors, compile everything together
+                return call(getTask(opts, filePaths, session.getStandardFileManager(opts), diagnostics, null));
+            }
+        }
+
+        for (Partition result : results) {
+            for (BufferedClass bufferedClass : result.classes) {
+                try (OutputStream out = openClassOutputStream(bufferedClass.sibling, bufferedClass.classDir,
+                        bufferedClass.className)) {
+                    bufferedClass.bytes.writeTo(out);
+                }
+            }
+        }
+
+        // diagnostics in partition order
+        for (Partition result : results) {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : result.diagnostics) {
+                if (diagnostics != null) {
+                    diagnostics.add(CompileDiagnostic.of(diagnostic));
+                } else {
+                    System.err.println(diagnostic);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static class Partition {
+
+        private final boolean success;
+        private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        private final List<BufferedClass> classes;
+
+        public Partition(boolean success, List<Diagnostic<? extends JavaFileObject>> diagnostics,
+                List<BufferedClass> classes) {
+
+            this.success = success;
+            this.diagnostics = diagnostics;
+            this.classes = classes;
+        }
+    }
+
+    // a class written by javac and held until it may go to the session
+    private static class BufferedClass {
+
+        private final URI sibling;
+        private final URI classDir;
+        private final String className;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        public BufferedClass(URI sibling, URI classDir, String className) {
+
+            this.sibling = sibling;
+            this.classDir = classDir;
+            this.className = className;
+        }
+    }
+
+    // false if -Mfailfast stopped the task, javac wraps the exception of the listener
+    private static boolean call(CompilationTask task) {
+
+        try {
+            return task.call();
+        } catch (RuntimeException ex) {
+            if (CompileDiagnostics.isFailFast(ex)) {
+                return false;
+            }
+            throw ex;
+        }
+    }
 
-                    return new JavaFileObject() {
+    // no lock, ToolProvider returns the same compiler to racing threads
+    static JavaCompiler getSystemCompiler() {
 
-                        @Override
-                        public OutputStream openOutputStream() throws IOException {
+        JavaCompiler compiler = systemCompiler;
+        if (compiler == null) {
+            compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                throw new RuntimeException("use JDK_HOME/bin/java");
+            }
+            systemCompiler = compiler;
+        }
+        return compiler;
+    }
+
+    private CompilationTask getTask(final List<String> opts, final List<String> filePaths,
+            StandardJavaFileManager stdfm, DiagnosticListener<JavaFileObject> listener,
+            final List<BufferedClass> buffer) throws IOException {
 
-                            Path path = Paths.get(sibling.toUri());
-                            Path parentPath = path.getParent();
+        JavaCompiler compiler = getSystemCompiler();
+        JavaFileManager cpfm = new ClassPathFileManager(stdfm, getCharset(opts));
 
-                            OutputStream stream = null;
-                            if (cacheClass) {
-                                stream = ClassManager.getOutputStream(parentPath.toUri(), className);
+        JavaFileManager fm = new ForwardingJavaFileManager<JavaFileManager>(cpfm) {
+
+            @Override
+            public Iterable<JavaFileObject> list(JavaFileManager.Location location, String packageName,
+                    Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+
+                Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+                if (cache != null && location == StandardLocation.CLASS_PATH) {
+                    files = getClassPathFiles(files);
+                }
+                if (!incremental || location != StandardLocation.CLASS_PATH
+                        || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+                    return files;
+                }
+
+                // unchanged classes on the memory filesystem
+                List<JavaFileObject> all = incrementalState.list(packageName, recurse);
+                for (JavaFileObject file : files) {
+                    all.add(file);
+                }
+                return all;
+            }
+
+            @Override
+            public String inferBinaryName(JavaFileManager.Location location, JavaFileObject file) {
+
+                if (file instanceof ClassPathFile) {
+                    file = ((ClassPathFile) file).getFile();
+                }
+                String binaryName = incrementalState.inferBinaryName(file);
+                if (binaryName != null) {
+                    return binaryName;
+                }
+                return super.inferBinaryName(location, file);
+            }
+
+            @Override
+            public boolean isSameFile(FileObject a, FileObject b) {
+
+                return super.isSameFile(a instanceof ClassPathFile ? ((ClassPathFile) a).getFile() : a,
+                        b instanceof ClassPathFile ? ((ClassPathFile) b).getFile() : b);
+            }
+
+            @Override
+            public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location,
+                    final String className, JavaFileObject.Kind kind, final FileObject sibling) throws IOException {
+
+                return new JavaFileObject() {
+
+                    @Override
+                    public OutputStream openOutputStream() throws IOException {
+
+                        Path path = Paths.get(sibling.toUri());
+                        URI classDir = path.getParent().toUri();
+                        if (buffer == null) {
+                            return openClassOutputStream(sibling.toUri(), classDir, className);
+                        }
+
+                        final BufferedClass bufferedClass = new BufferedClass(sibling.toUri(), classDir, className);
+                        return new FilterOutputStream(bufferedClass.bytes) {
+
+                            @Override
+                            public void write(byte[] b, int off, int len) throws IOException {
+
+                                out.write(b, off, len);
                             }
 
-                            if (stream == null) {
-                                stream = getEmptyOutputStream();
+                            @Override
+                            public void close() throws IOException {
+
+                                super.close();
+                                buffer.add(bufferedClass);
                             }
-                            return stream;
-                        }
+                        };
+                    }
+
+                    @Override
+                    public JavaFileObject.Kind getKind() {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public boolean isNameCompatible(String simpleName, JavaFileObject.Kind kind) {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public NestingKind getNestingKind() {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public Modifier getAccessLevel() {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public URI toUri() {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public String getName() {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public InputStream openInputStream() throws IOException {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public Writer openWriter() throws IOException {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public long getLastModified() {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
+                    @Override
+                    public boolean delete() {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+                };
+            }
+        };
 
-                        @Override
-                        public JavaFileObject.Kind getKind() {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+        CompilationTask task = compiler.getTask(null, fm, listener, opts, null, getUnits(stdfm, filePaths));
+        if (stats != null) {
+            stats.register(task);
+        }
+        return task;
+    }
 
-                        @Override
-                        public boolean isNameCompatible(String simpleName, JavaFileObject.Kind kind) {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+    // class files of class path directories, the cache records the ones javac reads
+    private List<JavaFileObject> getClassPathFiles(Iterable<JavaFileObject> files) {
 
-                        @Override
-                        public NestingKind getNestingKind() {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+        List<JavaFileObject> result = new ArrayList<>();
+        for (JavaFileObject file : files) {
+            if (file.getKind() == JavaFileObject.Kind.CLASS && "file".equals(file.toUri().getScheme())) {
+                result.add(new ClassPathFile(file));
+            } else {
+                result.add(file);
+            }
+        }
+        return result;
+    }
 
-                        @Override
-                        public Modifier getAccessLevel() {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+    private final class ClassPathFile extends ForwardingJavaFileObject<JavaFileObject> {
 
-                        @Override
-                        public URI toUri() {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+        public ClassPathFile(JavaFileObject file) {
 
-                        @Override
-                        public String getName() {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+            super(file);
+        }
 
-                        @Override
-                        public InputStream openInputStream() throws IOException {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+        public JavaFileObject getFile() {
 
-                        @Override
-                        public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+            return fileObject;
+        }
 
-                        @Override
-                        public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+        @Override
+        public InputStream openInputStream() throws IOException {
 
-                        @Override
-                        public Writer openWriter() throws IOException {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+            cache.readClassPathFile(Paths.get(toUri()));
+            return super.openInputStream();
+        }
+    }
 
-                        @Override
-                        public long getLastModified() {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
+    private OutputStream openClassOutputStream(URI sibling, URI classDir, String className) throws IOException {
 
-                        @Override
-                        public boolean delete() {
-                            throw new UnsupportedOperationException("Not supported yet.");
-                        }
-                    };
-                }
-            };
+        OutputStream stream = null;
+        if (cacheClass) {
+            stream = session.getOutputStream(classDir, className);
+            if (incremental) {
+                stream = incrementalState.getOutputStream(sibling, classDir, className, stream);
+            }
+            if (cache != null) {
+                stream = cache.getOutputStream(sibling, classDir, className, stream);
+            }
+            if (stats != null) {
+                stream = stats.getOutputStream(stream);
+            }
+        }
+
+        if (stream == null) {
+            stream = getEmptyOutputStream();
+        }
+        return stream;
+    }
+
+    static Charset getCharset(List<String> opts) {
 
-            return compiler.getTask(null, fm, null, opts, null, getUnits(stdfm, filePaths));
+        int index = opts.indexOf("-encoding");
+        if (index != -1 && (index + 1) < opts.size()) {
+            return Charset.forName(opts.get(index + 1));
         }
+        return Charset.defaultCharset();
     }
 
     private OutputStream getEmptyOutputStream() {
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+public final class Daemon {
+
+    public static final int DEFAULT_PORT = 7375;
+
+    // response frames
+    static final int FRAME_EXIT = 0;
+    static final int FRAME_OUT = 1;
+    static final int FRAME_ERR = 2;
+
+    private static final int TOKEN_BYTES = 32;
+    // milliseconds a connection has to send its token
+    private static final int TOKEN_TIMEOUT = 5000;
+
+    private final int port;
+    // classes of the previous request are kept for -Mincremental
+    private final Session session = new Session();
+
+    public Daemon(int port) {
+
+        this.port = port;
+    }
+
+    public void serve() throws IOException {
+
+        // loopback only, requests are handled one by one
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            String token = writeToken(getTokenFile(port));
+            System.out.println("memjc daemon listening on " + server.getLocalSocketAddress());
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    handle(socket, token);
+                } catch (IOException ex) {
+                    System.err.println(ex.toString());
+                }
+            }
+        }
+    }
+
+    // the token of the daemon on a port, other users can not read it
+    static Path getTokenFile(int port) {
+
+        return Paths.get(System.getProperty("user.home"), ".memjc", "daemon-" + port + ".token");
+    }
+
+    private static String writeToken(Path file) throws IOException {
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        String token = new BigInteger(1, bytes).toString(16);
+
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.createFile(temp, PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rw-------")));
+            } else {
+                Files.createFile(temp);
+            }
+            Files.write(temp, token.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        file.toFile().deleteOnExit();
+        return token;
+    }
+
+    private void handle(Socket socket, String token) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        // any local user can connect, only the owner of the daemon can read the token
+        socket.setSoTimeout(TOKEN_TIMEOUT);
+        byte[] received = in.readUTF().getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(received, token.getBytes(StandardCharsets.UTF_8))) {
+            throw new IOException("rejected a request without the daemon token from "
+                    + socket.getRemoteSocketAddress());
+        }
+        socket.setSoTimeout(0);
+
+        // request: working directory, CLASSPATH (if set) and memjc arguments
+        String workDir = in.readUTF();
+        String classPathEnv = in.readBoolean() ? in.readUTF() : null;
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, FRAME_OUT)), true));
+        System.setErr(new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, FRAME_ERR)), true));
+
+        int status;
+        try {
+            Options options = new Options(workDir, classPathEnv);
+            status = Main.setOptions(options, args);
+            if (status == Main.STATUS_CONTINUE) {
+                String localOption = options.getLocalOnlyOption();
+                if (localOption != null) {
+                    System.err.println(localOption + " is not supported by the memjc daemon"
+                            + " (unset MEMJC_PORT to run it in its own JVM)");
+                    status = Main.STATUS_ERROR;
+                } else {
+                    // incremental compiles reuse the classes of the previous request
+                    if (!options.memJcIncremental) {
+                        session.clear();
+                    }
+                    status = Main.dispatch(options, session);
+                }
+            }
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+
+        synchronized (out) {
+            out.writeByte(FRAME_EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    private static class FrameOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final int type;
+
+        public FrameOutputStream(DataOutputStream out, int type) {
+
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.tadaedo.memjc;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -8,6 +10,19 @@ import java.net.URLStreamHandler;
 
 public final class Handler extends URLStreamHandler {
 
+    // classes of a class loader, memjc:/<class path> (see MemoryClassLoader)
+    private final ClassStore store;
+
+    public Handler() {
+
+        this(null);
+    }
+
+    public Handler(ClassStore store) {
+
+        this.store = store;
+    }
+
     // regist Handler 'memjc' protocol
     public static void regist() {
 
@@ -27,13 +42,16 @@ public final class Handler extends URLStreamHandler {
     @Override
     protected URLConnection openConnection(URL url) throws IOException {
 
-        return new MemjcURLConnection(url);
+        return new MemjcURLConnection(url, store);
     }
 
     private static class MemjcURLConnection extends URLConnection {
 
-        public MemjcURLConnection(URL url) {
+        private final ClassStore store;
+
+        public MemjcURLConnection(URL url, ClassStore store) {
             super(url);
+            this.store = store;
         }
 
         @Override
@@ -42,7 +60,16 @@ public final class Handler extends URLStreamHandler {
         @Override
         public InputStream getInputStream() throws IOException {
 
-            return ClassManager.getInputStream(url.getPath());
+            if (store == null) {
+                return Session.getInputStream(url);
+            }
+            String path = url.getPath();
+            String className = path.substring(1, path.length() - ".class".length()).replace('/', '.');
+            byte[] bytes = store.get(className);
+            if (bytes == null) {
+                throw new FileNotFoundException(url.toString());
+            }
+            return new ByteArrayInputStream(bytes);
         }
     }
 }
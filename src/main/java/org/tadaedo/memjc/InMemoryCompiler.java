@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+// compiles sources held in memory to class bytes, no file is read or written except the class files
+// of the class path, an instance is thread safe and can be reused until it is closed
+public final class InMemoryCompiler implements Closeable {
+
+    private static final String SOURCE_SCHEME = "string";
+
+    private final List<String> opts;
+    private final List<String> classPaths;
+    private final URL[] classPathUrls;
+    private final ClassLoader parent;
+    private final Charset charset;
+    // javac reads sources of the class path without -sourcepath, only the given sources are compiled
+    private final boolean classPathSources;
+    // standard file managers are not thread safe, each compile takes an idle one
+    private final ConcurrentLinkedQueue<StandardJavaFileManager> fileManagers = new ConcurrentLinkedQueue<>();
+
+    public InMemoryCompiler() {
+
+        this(Collections.<String>emptyList(), Collections.<String>emptyList(), ClassLoader.getSystemClassLoader());
+    }
+
+    public InMemoryCompiler(List<String> opts, List<String> classPaths, ClassLoader parent) {
+
+        this.opts = new ArrayList<>(opts);
+        this.classPaths = new ArrayList<>(classPaths);
+        this.parent = parent;
+        this.charset = Charset.defaultCharset();
+
+        if (!this.classPaths.isEmpty()) {
+            this.opts.add("-cp");
+            this.opts.add(join(this.classPaths));
+        }
+        this.classPathSources = this.opts.contains("-sourcepath");
+        // annotation processors are searched on the file system
+        if (!hasProcessorOption(this.opts)) {
+            this.opts.add("-proc:none");
+        }
+
+        List<URL> urls = new ArrayList<>();
+        for (String classPath : this.classPaths) {
+            try {
+                urls.add(new File(classPath).toURI().toURL());
+            } catch (MalformedURLException ex) {
+                throw new IllegalArgumentException(classPath, ex);
+            }
+        }
+        this.classPathUrls = urls.toArray(new URL[0]);
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        private final CharSequence content;
+        private final byte[] bytes;
+        private final Charset charset;
+
+        public SourceFile(String className, CharSequence content, byte[] bytes, Charset charset) {
+
+            super(URI.create(SOURCE_SCHEME + ":///" + className.replace('.', '/')
+                    + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE);
+            this.content = content;
+            this.bytes = bytes;
+            this.charset = charset;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+
+            return content != null ? content : new String(bytes, charset);
+        }
+
+        @Override
+        public InputStream openInputStream() {
+
+            return new ByteArrayInputStream(bytes != null ? bytes : content.toString().getBytes(charset));
+        }
+    }
+
+    private static class ClassFile extends SimpleJavaFileObject {
+
+        private final String className;
+        private final Map<String, byte[]> classes;
+
+        public ClassFile(String className, Map<String, byte[]> classes) {
+
+            super(URI.create(SOURCE_SCHEME + ":///" + className.replace('.', '/')
+                    + JavaFileObject.Kind.CLASS.extension), JavaFileObject.Kind.CLASS);
+            this.className = className;
+            this.classes = classes;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+
+            return new ByteArrayOutputStream() {
+
+                @Override
+                public void close() throws IOException {
+
+                    super.close();
+                    synchronized (classes) {
+                        classes.put(className, toByteArray());
+                    }
+                }
+            };
+        }
+    }
+
+    // sources keyed by top level class name (org.example.Test)
+    public CompileResult compile(Map<String, ? extends CharSequence> sources) throws IOException {
+
+        List<JavaFileObject> units = new ArrayList<>();
+        for (Map.Entry<String, ? extends CharSequence> entry : sources.entrySet()) {
+            units.add(new SourceFile(entry.getKey(), entry.getValue(), null, charset));
+        }
+        return compileUnits(units);
+    }
+
+    // sources keyed by top level class name, decoded with the given charset
+    public CompileResult compileBytes(Map<String, byte[]> sources, Charset sourceCharset) throws IOException {
+
+        List<JavaFileObject> units = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : sources.entrySet()) {
+            units.add(new SourceFile(entry.getKey(), null, entry.getValue(), sourceCharset));
+        }
+        return compileUnits(units);
+    }
+
+    private CompileResult compileUnits(List<JavaFileObject> units) throws IOException {
+
+        final Map<String, byte[]> classes = new HashMap<>();
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+
+        StandardJavaFileManager stdfm = fileManagers.poll();
+        if (stdfm == null) {
+            stdfm = Compiler.getSystemCompiler().getStandardFileManager(null, null, charset);
+        }
+
+        boolean success;
+        try {
+            JavaFileManager cpfm = new ClassPathFileManager(stdfm, charset);
+            JavaFileManager fm = new ForwardingJavaFileManager<JavaFileManager>(cpfm) {
+
+                @Override
+                public Iterable<JavaFileObject> list(JavaFileManager.Location location, String packageName,
+                        Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+
+                    // no class path given, do not fall back to the current directory
+                    if (location == StandardLocation.CLASS_PATH && classPaths.isEmpty()) {
+                        return Collections.emptyList();
+                    }
+                    if (location == StandardLocation.CLASS_PATH && !classPathSources
+                            && kinds.contains(JavaFileObject.Kind.SOURCE)) {
+                        Set<JavaFileObject.Kind> classKinds = EnumSet.copyOf(kinds);
+                        classKinds.remove(JavaFileObject.Kind.SOURCE);
+                        if (classKinds.isEmpty()) {
+                            return Collections.emptyList();
+                        }
+                        return super.list(location, packageName, classKinds, recurse);
+                    }
+                    return super.list(location, packageName, kinds, recurse);
+                }
+
+                @Override
+                public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                        JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+
+                    if (kind != JavaFileObject.Kind.CLASS) {
+                        return super.getJavaFileForOutput(location, className, kind, sibling);
+                    }
+                    return new ClassFile(className, classes);
+                }
+            };
+
+            success = Compiler.getSystemCompiler().getTask(null, fm, collector, opts, null, units).call();
+        } finally {
+            fileManagers.offer(stdfm);
+        }
+
+        List<CompileDiagnostic> diagnostics = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : collector.getDiagnostics()) {
+            diagnostics.add(CompileDiagnostic.of(diagnostic));
+        }
+
+        synchronized (classes) {
+            return new CompileResult(success, new HashMap<>(classes), diagnostics, classPathUrls, parent);
+        }
+    }
+
+    @Override
+    public void close() {
+
+        StandardJavaFileManager stdfm;
+        while ((stdfm = fileManagers.poll()) != null) {
+            try {
+                stdfm.close();
+            } catch (IOException ex) {
+                // nothing to release
+            }
+        }
+    }
+
+    private static boolean hasProcessorOption(List<String> opts) {
+
+        for (String opt : opts) {
+            if (opt.startsWith("-proc:") || opt.equals("-processor") || opt.equals("-processorpath")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String join(List<String> classPaths) {
+
+        StringBuilder buf = new StringBuilder();
+        for (String classPath : classPaths) {
+            if (buf.length() > 0) {
+                buf.append(File.pathSeparator);
+            }
+            buf.append(classPath);
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+// source hashes and class dependencies of the previous compile
+public final class Incremental {
+
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    private final Session session;
+    private final Map<String, Source> sources = new HashMap<>();
+    private final Map<String, Source> pending = new HashMap<>();
+    private final Set<String> dirty = new HashSet<>();
+    // sources not given that javac found on the source path
+    private final Set<String> implicitSources = new HashSet<>();
+    private List<String> lastOpts;
+
+    public Incremental(Session session) {
+
+        this.session = session;
+    }
+
+    private class Source {
+
+        private final String hash;
+        private final List<ClassRecord> classes = new ArrayList<>();
+
+        public Source(String hash) {
+
+            this.hash = hash;
+        }
+
+        public boolean exists() {
+
+            for (ClassRecord record : classes) {
+                if (!session.exists(record.dir, record.className)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean hasConstants() {
+
+            for (ClassRecord record : classes) {
+                if (record.constants) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class ClassRecord {
+
+        private final URI dir;
+        private final String className;
+        private final Set<String> dependencies;
+        private final boolean constants;
+        private final long lastModified;
+
+        public ClassRecord(URI dir, String className, Set<String> dependencies, boolean constants) {
+
+            this.dir = dir;
+            this.className = className;
+            this.dependencies = dependencies;
+            this.constants = constants;
+            this.lastModified = System.currentTimeMillis();
+        }
+    }
+
+    // class compiled by the previous compile, read from the memory filesystem
+    private class MemoryClassFile extends SimpleJavaFileObject {
+
+        private final ClassRecord record;
+
+        public MemoryClassFile(ClassRecord record) {
+
+            super(URI.create(Session.MEMJC_SCHEME + ":///" + record.className.replace('.', '/')
+                    + JavaFileObject.Kind.CLASS.extension), JavaFileObject.Kind.CLASS);
+            this.record = record;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+
+            byte[] bytes = session.getClassStore().get(record.className);
+            if (bytes == null) {
+                return session.getInputStream(record.dir, record.className);
+            }
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public long getLastModified() {
+
+            return record.lastModified;
+        }
+    }
+
+    // returns the sources to compile
+    public synchronized List<String> prepare(List<String> opts, List<String> filePaths) throws IOException {
+
+        boolean full = !opts.equals(lastOpts);
+        lastOpts = new ArrayList<>(opts);
+
+        Map<String, String> current = new LinkedHashMap<>();
+        for (String path : filePaths) {
+            current.put(getSourceKey(Paths.get(path)), path);
+        }
+
+        // removed sources
+        dirty.clear();
+        for (String key : sources.keySet()) {
+            if (!current.containsKey(key)) {
+                dirty.add(key);
+            }
+        }
+
+        // new or changed sources
+        Map<String, String> hashes = new HashMap<>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            String hash = hash(Paths.get(entry.getValue()));
+            hashes.put(entry.getKey(), hash);
+
+            Source source = sources.get(entry.getKey());
+            if (source == null || !hash.equals(source.hash) || !source.exists()) {
+                dirty.add(entry.getKey());
+            }
+        }
+
+        // inlined constants are not visible in the constant pool of the dependents
+        for (String key : dirty) {
+            Source source = sources.get(key);
+            if (source != null && source.hasConstants()) {
+                full = true;
+            }
+        }
+
+        if (full) {
+            dirty.addAll(sources.keySet());
+            dirty.addAll(current.keySet());
+        } else {
+            addDependents();
+        }
+
+        // drop stale classes
+        for (String key : dirty) {
+            Source source = sources.get(key);
+            if (source != null) {
+                for (ClassRecord record : source.classes) {
+                    session.delete(record.dir, record.className);
+                }
+            }
+        }
+
+        pending.clear();
+        List<String> units = new ArrayList<>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (dirty.contains(entry.getKey())) {
+                pending.put(entry.getKey(), new Source(hashes.get(entry.getKey())));
+                units.add(entry.getValue());
+            }
+        }
+        return units;
+    }
+
+    private void addDependents() {
+
+        Map<String, Set<String>> dependents = new HashMap<>();
+        for (Map.Entry<String, Source> entry : sources.entrySet()) {
+            for (ClassRecord record : entry.getValue().classes) {
+                for (String dependency : record.dependencies) {
+                    Set<String> keys = dependents.get(dependency);
+                    if (keys == null) {
+                        keys = new HashSet<>();
+                        dependents.put(dependency, keys);
+                    }
+                    keys.add(entry.getKey());
+                }
+            }
+        }
+
+        Deque<String> queue = new ArrayDeque<>(dirty);
+        while (!queue.isEmpty()) {
+            Source source = sources.get(queue.poll());
+            if (source == null) {
+                continue;
+            }
+            for (ClassRecord record : source.classes) {
+                Set<String> keys = dependents.get(record.className);
+                if (keys == null) {
+                    continue;
+                }
+                for (String key : keys) {
+                    if (dirty.add(key)) {
+                        queue.add(key);
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized OutputStream getOutputStream(URI source, final URI dir, final String className,
+            OutputStream stream) {
+
+        String key = getSourceKey(Paths.get(source));
+        final Source record = pending.get(key);
+        if (record == null) {
+            if (!sources.containsKey(key)) {
+                implicitSources.add(key);
+            }
+            return stream;
+        }
+
+        return new FilterOutputStream(stream) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+
+                // the class store holds the bytes once the class stream is closed
+                super.close();
+                ClassInfo info = ClassInfo.parse(session.getClassStore().get(className));
+                synchronized (Incremental.this) {
+                    // a parallel compile may write the class again in its final pass
+                    for (int i = record.classes.size() - 1; i >= 0; i--) {
+                        if (record.classes.get(i).className.equals(className)) {
+                            record.classes.remove(i);
+                        }
+                    }
+                    record.classes.add(new ClassRecord(dir, className, info.getDependencies(),
+                            info.hasConstants()));
+                }
+            }
+        };
+    }
+
+    public synchronized void finish(boolean success) {
+
+        for (String key : dirty) {
+            Source source = pending.get(key);
+            Source previous = sources.remove(key);
+            if (!success) {
+                // compile again next time, keep the class names for the dependents
+                Source failed = new Source(null);
+                if (previous != null) {
+                    failed.classes.addAll(previous.classes);
+                }
+                if (source != null) {
+                    failed.classes.addAll(source.classes);
+                }
+                sources.put(key, failed);
+            } else if (source != null) {
+                sources.put(key, source);
+            }
+        }
+        pending.clear();
+        dirty.clear();
+    }
+
+    public synchronized boolean isImplicitSource(Path path) {
+
+        return implicitSources.contains(getSourceKey(path));
+    }
+
+    // classes of unchanged sources, listed to javac as class path entries
+    public synchronized List<JavaFileObject> list(String packageName, boolean recurse) {
+
+        List<JavaFileObject> files = new ArrayList<>();
+        for (Map.Entry<String, Source> entry : sources.entrySet()) {
+            if (dirty.contains(entry.getKey()) || entry.getValue().hash == null) {
+                continue;
+            }
+            for (ClassRecord record : entry.getValue().classes) {
+                if (isInPackage(record.className, packageName, recurse)) {
+                    files.add(new MemoryClassFile(record));
+                }
+            }
+        }
+        return files;
+    }
+
+    public String inferBinaryName(JavaFileObject file) {
+
+        if (file instanceof MemoryClassFile) {
+            return ((MemoryClassFile) file).record.className;
+        }
+        return null;
+    }
+
+    private static boolean isInPackage(String className, String packageName, boolean recurse) {
+
+        int index = className.lastIndexOf('.');
+        String classPackage = index == -1 ? "" : className.substring(0, index);
+        if (recurse) {
+            return packageName.isEmpty() || classPackage.equals(packageName)
+                    || classPackage.startsWith(packageName + ".");
+        }
+        return classPackage.equals(packageName);
+    }
+
+    private static String getSourceKey(Path path) {
+
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private static String hash(Path path) throws IOException {
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            byte[] hash = digest.digest(Files.readAllBytes(path));
+            return String.format("%040x", new BigInteger(1, hash));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
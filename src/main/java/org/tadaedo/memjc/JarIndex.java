@@ -0,0 +1,329 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// package index of a jar, the central directory is read once and entries with positional reads
+// of one channel, closed when the jar is modified
+public final class JarIndex {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int LOC_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    // indexes kept between compiles and class loaders
+    private static final Map<File, JarIndex> jarIndexes = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final Map<String, List<Entry>> packages = new HashMap<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+    // positional reads do not share a position, threads read it at once
+    private FileChannel channel;
+    private boolean closed;
+
+    public static final class Entry {
+
+        private final JarIndex jar;
+        private final String name;
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int offset;
+
+        private Entry(JarIndex jar, String name, int method, int compressedSize, int size, int offset) {
+
+            this.jar = jar;
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        public JarIndex getJar() {
+
+            return jar;
+        }
+
+        public String getName() {
+
+            return name;
+        }
+
+        public byte[] getBytes() throws IOException {
+
+            return jar.read(this);
+        }
+    }
+
+    private JarIndex(File file) {
+
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+    }
+
+    // returns null if the jar can not be indexed (zip64, not a zip file)
+    public static JarIndex open(File file) throws IOException {
+
+        if (file.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        JarIndex index = new JarIndex(file);
+        boolean indexed = false;
+        try {
+            indexed = index.readCentralDirectory(index.getChannel());
+            return indexed ? index : null;
+        } finally {
+            if (!indexed) {
+                index.close();
+            }
+        }
+    }
+
+    // cached index, opened again if the jar is modified
+    public static JarIndex get(File file) throws IOException {
+
+        File key = file.getAbsoluteFile();
+        JarIndex index = jarIndexes.get(key);
+        if (index == null || index.isModified()) {
+            if (index != null) {
+                // entries of the old index can not be read from the new jar
+                index.close();
+            }
+            index = open(key);
+            if (index == null) {
+                jarIndexes.remove(key);
+            } else {
+                jarIndexes.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    public File getFile() {
+
+        return file;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+
+        if (channel == null || !channel.isOpen()) {
+            if (closed) {
+                throw new IOException("Modified after it was indexed: " + file);
+            }
+            // also after an interrupted read closed it
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    private synchronized void close() throws IOException {
+
+        closed = true;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    public boolean isModified() {
+
+        return file.lastModified() != lastModified || file.length() != length;
+    }
+
+    public List<Entry> list(String packageName) {
+
+        List<Entry> entries = packages.get(packageName);
+        return entries == null ? Collections.<Entry>emptyList() : entries;
+    }
+
+    public Entry getEntry(String name) {
+
+        return entries.get(name);
+    }
+
+    public List<String> getPackageNames() {
+
+        return new ArrayList<>(packages.keySet());
+    }
+
+    private boolean readCentralDirectory(FileChannel channel) throws IOException {
+
+        // the end record is in the last bytes, after it only the comment
+        long jarSize = channel.size();
+        int tailSize = (int) Math.min(jarSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, jarSize - tailSize, tailSize);
+
+        int eocd = -1;
+        for (int i = tail.limit() - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            return false;
+        }
+
+        int count = tail.getShort(eocd + 10) & 0xFFFF;
+        long cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long offset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            return false; // zip64
+        }
+        if (offset + cenSize > jarSize) {
+            return false;
+        }
+        ByteBuffer buf = read(channel, offset, (int) cenSize);
+
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + 46 > buf.limit() || buf.getInt(pos) != CEN_SIGNATURE) {
+                return false;
+            }
+            int method = buf.getShort(pos + 10) & 0xFFFF;
+            int compressedSize = buf.getInt(pos + 20);
+            int size = buf.getInt(pos + 24);
+            int nameLength = buf.getShort(pos + 28) & 0xFFFF;
+            int extraLength = buf.getShort(pos + 30) & 0xFFFF;
+            int commentLength = buf.getShort(pos + 32) & 0xFFFF;
+            int localOffset = buf.getInt(pos + 42);
+
+            if (pos + 46 + nameLength > buf.limit()) {
+                return false;
+            }
+            byte[] nameBytes = new byte[nameLength];
+            buf.position(pos + 46);
+            buf.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            if (!name.endsWith("/")) {
+                int index = name.lastIndexOf('/');
+                String packageName = index == -1 ? "" : name.substring(0, index).replace('/', '.');
+                List<Entry> entries = packages.get(packageName);
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    packages.put(packageName, entries);
+                }
+                Entry entry = new Entry(this, name, method, compressedSize, size, localOffset);
+                entries.add(entry);
+                if (!this.entries.containsKey(name)) {
+                    this.entries.put(name, entry);
+                }
+            }
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return true;
+    }
+
+    // little endian bytes at a position of the jar
+    private ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    // the stored or compressed bytes of an entry
+    private ByteBuffer readData(FileChannel channel, Entry entry) throws IOException {
+
+        long offset = entry.offset & 0xFFFFFFFFL;
+        ByteBuffer header = read(channel, offset, LOC_HEADER_SIZE);
+        if (header.getInt(0) != LOC_SIGNATURE) {
+            throw new IOException("Invalid local header: " + entry.name);
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        int dataSize = entry.method == STORED ? entry.size : entry.compressedSize;
+        return read(channel, offset + LOC_HEADER_SIZE + nameLength + extraLength, dataSize);
+    }
+
+    private byte[] read(Entry entry) throws IOException {
+
+        ByteBuffer buf;
+        try {
+            buf = readData(getChannel(), entry);
+        } catch (ClosedByInterruptException ex) {
+            throw ex;
+        } catch (ClosedChannelException ex) {
+            // closed by the interrupt of another reader
+            buf = readData(getChannel(), entry);
+        }
+
+        switch (entry.method) {
+        case STORED:
+            byte[] data = new byte[entry.size];
+            buf.get(data);
+            return data;
+        case DEFLATED:
+            // nowrap inflater may need an extra dummy byte
+            byte[] input = new byte[entry.compressedSize + 1];
+            buf.get(input, 0, entry.compressedSize);
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(input);
+                byte[] bytes = new byte[entry.size];
+                int len = 0;
+                while (len < bytes.length && !inflater.finished()) {
+                    int n = inflater.inflate(bytes, len, bytes.length - len);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    len += n;
+                }
+                if (len != bytes.length) {
+                    throw new IOException("Invalid entry size: " + entry.name);
+                }
+                return bytes;
+            } catch (DataFormatException ex) {
+                throw new IOException(ex);
+            } finally {
+                inflater.end();
+            }
+        default:
+            throw new IOException("Unsupported compression method " + entry.method + ": " + entry.name);
+        }
+    }
+}
@@ -15,8 +15,23 @@
  */
 package org.tadaedo.memjc;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+
 public final class Main {
 
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+    static final int STATUS_CONTINUE = -1;
+
     static {
         // regist memjc protocol
         Handler.regist();
@@ -24,45 +39,308 @@ public final class Main {
 
     public static void main(String[] args) {
 
-        run(args);
+        int status = run(args);
+        if (status != STATUS_OK) {
+            System.exit(status);
+        }
     }
 
-    public static void run(String[] args) {
+    public static int run(String[] args) {
 
         Options options = new Options();
 
+        int status = setOptions(options, args);
+        if (status != STATUS_CONTINUE) {
+            return status;
+        }
+
+        if (options.memJcDaemon) {
+            try {
+                new Daemon(options.memJcDaemonPort).serve();
+                return STATUS_OK;
+            } catch (Exception ex) {
+                printError(options, ex);
+                return STATUS_ERROR;
+            }
+        }
+
+        if (options.memJcCdsDump && !Boolean.getBoolean(CdsDump.TRAINING_PROPERTY)) {
+            // the training run must compile something, else the archive holds only the memjc start up
+            if (options.files.isEmpty() && options.memJcSrc.isEmpty() && options.memJcBatch == null) {
+                System.err.println(options.memJcCdsDumpArg + " requires the sources of a training run,"
+                        + " e.g. -Mmain:Test Test.java");
+                Options.showUsage();
+                return STATUS_ERROR;
+            }
+            try {
+                List<String> trainingArgs = new ArrayList<>(Arrays.asList(args));
+                trainingArgs.remove(options.memJcCdsDumpArg);
+                return new CdsDump(options.memJcCdsArchive).dump(trainingArgs);
+            } catch (Exception ex) {
+                printError(options, ex);
+                return STATUS_ERROR;
+            }
+        }
+
+        // one session holds the classes of this compile and run
+        try (Session session = new Session()) {
+            if (options.memJcWatch) {
+                try {
+                    new Watch(options, options.memJcWatchDebounce, session).watch();
+                    return STATUS_OK;
+                } catch (Exception ex) {
+                    printError(options, ex);
+                    return STATUS_ERROR;
+                }
+            }
+
+            return dispatch(options, session);
+        }
+    }
+
+    // the modes of a compile request, also run by the daemon
+    static int dispatch(Options options, Session session) {
+
+        if (options.memJcBatch != null) {
+            try (BatchCompiler batch = new BatchCompiler(options.opts, options.memJcClassPaths,
+                    options.memJcBatchThreads, options.memJcBatchRun, options.memJcBatchTimeout,
+                    options.memJcClassArgs)) {
+                List<String> paths = BatchCompiler.listSources(options.memJcBatch);
+                return batch.compileAll(paths, System.out, System.err) ? STATUS_OK : STATUS_ERROR;
+            } catch (Exception ex) {
+                printError(options, ex);
+                return STATUS_ERROR;
+            }
+        }
+
+        return execute(options, session);
+    }
+
+    static int setOptions(Options options, String[] args) {
+
         try {
             if (!options.setOptions(args)) {
-                return;
+                return STATUS_OK;
             }
+            options.findSources();
         } catch (Exception ex) {
             System.err.println(ex.getMessage());
             Options.showUsage();
-            return;
+            return STATUS_ERROR;
         }
+        return STATUS_CONTINUE;
+    }
+
+    static int execute(Options options, Session session) {
+
+        Stats stats = options.memJcStats ? new Stats() : null;
+        ClassStore store = session.getClassStore();
+        store.setLimit(options.memJcStoreMaxBytes, options.memJcStoreCompress);
 
         try {
 
-            Compiler compiler = new Compiler(options.memJcOut || options.memJcRun);
-            compiler.compile(options.opts, options.files);
+            boolean cacheClass = options.memJcOut || options.memJcRun || options.memJcRunAll
+                    || options.memJcJarFile != null;
+            Compiler compiler = new Compiler(session, cacheClass, options.memJcIncremental);
+            compiler.setParallelism(options.memJcParallelism);
+            compiler.setStats(stats);
+            CompileDiagnostics diagnostics = null;
+            if (options.memJcDiagnostics || options.memJcFailFastErrors > 0) {
+                diagnostics = new CompileDiagnostics(options.memJcDiagnosticsMax, options.memJcFailFastErrors);
+                compiler.setDiagnostics(diagnostics);
+            }
+            if (options.memJcCacheDir != null) {
+                compiler.setCache(new CompileCache(Paths.get(options.memJcCacheDir), options.memJcCacheMaxBytes));
+            }
+
+            if (options.memJcOut) {
+                session.startOutput();
+            }
+
+            begin(stats, "compile");
+            boolean compiled;
+            OnDemandCompiler lazy = null;
+            if (options.memJcLazy) {
+                lazy = new OnDemandCompiler(session, options.opts, options.files, options.memJcLazyBatch);
+                compiled = lazy.compileEntry(options.memJcRunClassName);
+                if (!compiled) {
+                    return STATUS_ERROR;
+                }
+            } else if (options.files.isEmpty() && !options.memJcSrc.isEmpty()) {
+                // every source is older than the -Msince file
+                System.err.println("memjc: no modified sources");
+                compiled = true;
+            } else {
+                compiled = compiler.compile(options.opts, options.files);
+            }
+            end(stats, "compile");
+
+            if (compiled && options.memJcSinceFile != null) {
+                Path since = Paths.get(options.memJcSinceFile);
+                if (!Files.exists(since)) {
+                    Files.createFile(since);
+                }
+                Files.setLastModifiedTime(since, FileTime.fromMillis(options.memJcSrcScanTime));
+            }
+
+            if (diagnostics != null) {
+                if (options.memJcDiagnosticsJson) {
+                    diagnostics.printJson(System.err);
+                } else {
+                    diagnostics.print(System.err);
+                }
+                if (diagnostics.isAborted()) {
+                    return STATUS_ERROR;
+                }
+            }
 
             if (options.memJcOut) {
-                ClassManager.outputAllFile();
+                begin(stats, "output");
+                session.finishOutput();
+                end(stats, "output");
+            }
+
+            if (options.memJcJarFile != null) {
+                session.outputJar(options.memJcJarFile, options.memJcJarStored,
+                        options.memJcRun ? options.memJcRunClassName : null);
             }
 
-            if (options.memJcRun) {
+            begin(stats, "run");
+            if (options.memJcRunAll) {
 
-                Runner runner = new Runner();
-                runner.execute(options.memJcRunClassName, options.memJcClassArgs,
+                compiled &= runAll(options, session);
+            } else if (options.memJcRun && options.memJcBench) {
+
+                Benchmark benchmark = new Benchmark(session, options.memJcBenchWarmup, options.memJcBenchIterations,
+                        options.memJcBenchReload, options.memJcBenchJson);
+                benchmark.run(options.memJcRunClassName, options.memJcClassArgs,
                         options.memJcClassPaths);
+            } else if (options.memJcRun) {
+
+                Runner runner = new Runner(session);
+                runner.setStats(stats);
+                runner.setPreload(options.memJcPreloadThreads);
+                runner.setSourceCompiler(lazy);
+                Profiler profiler = null;
+                if (options.memJcProfile) {
+                    profiler = new Profiler(options.memJcProfileInterval, options.memJcProfileAll, store);
+                    runner.setProfiler(profiler);
+                }
+                try {
+                    runner.execute(options.memJcRunClassName, options.memJcClassArgs,
+                            options.memJcClassPaths);
+                } finally {
+                    if (lazy != null && stats != null) {
+                        stats.setCounter("lazy sources compiled", lazy.getCompiledCount());
+                        stats.setCounter("lazy batches", lazy.getBatchCount());
+                        stats.setCounter("lazy compile ms", lazy.getTime() / 1000000);
+                    }
+                    if (profiler != null) {
+                        profiler.writeCollapsed(Paths.get(options.memJcProfileFile));
+                        profiler.printTop(System.err, Profiler.DEFAULT_TOP);
+                    }
+                }
             }
+            end(stats, "run");
+
+            return compiled ? STATUS_OK : STATUS_ERROR;
 
         } catch (Exception ex) {
-            if (options.memJcErrDetail) {
-                ex.printStackTrace(System.err);
-            } else {
-                System.err.println(ex.toString());
+            printError(options, ex);
+            return STATUS_ERROR;
+        } finally {
+            if (stats != null) {
+                stats.setCounter("store classes", store.size());
+                stats.setCounter("store bytes", store.getLiveBytes());
+                stats.setCounter("store compressed", store.getCompressedCount());
+                stats.setCounter("store evicted", store.getEvictedCount());
+                ClassFileWriter writer = session.getClassFileWriter();
+                if (writer != null) {
+                    stats.setCounter("out written", writer.getWrittenCount());
+                    stats.setCounter("out skipped", writer.getSkippedCount());
+                }
+                printStats(options, stats);
+            }
+        }
+    }
+
+    // runs every compiled class with a static main, output is printed in class name order
+    // false if a run did not finish normally
+    private static boolean runAll(Options options, Session session) throws Exception {
+
+        List<String> classNames = new ArrayList<>(session.getClassStore().getClassNames());
+        Collections.sort(classNames);
+        ClassLoader cl = session.newClassLoader(options.memJcClassPaths);
+
+        long start = System.nanoTime();
+        List<Future<RunResult>> futures = new ArrayList<>();
+        try (BatchRunner runner = new BatchRunner(options.memJcClassPaths, options.memJcRunAllThreads,
+                options.memJcRunAllTimeout)) {
+            for (String className : classNames) {
+                if (Runner.hasMainMethod(className, cl)) {
+                    futures.add(runner.submit(className, options.memJcClassArgs, session.getClassStore()));
+                }
+            }
+            List<RunResult> results = runner.getResults(futures);
+            long wallTime = System.nanoTime() - start;
+
+            for (RunResult result : results) {
+                System.out.println(String.format("== %s (%s, %.3f ms)", result.getClassName(),
+                        result.getStatus().name().toLowerCase(Locale.ROOT), Benchmark.toMillis(result.getTime())));
+                System.out.print(result.getOut());
+                System.out.flush();
+                System.err.print(result.getErr());
+                if (result.getError() != null) {
+                    if (options.memJcErrDetail) {
+                        result.getError().printStackTrace(System.err);
+                    } else {
+                        System.err.println(result.getError().toString());
+                    }
+                }
+                System.err.flush();
+            }
+            BatchRunner.printSummary(System.err, results, wallTime);
+
+            boolean ok = true;
+            for (RunResult result : results) {
+                ok &= result.getStatus() == RunResult.Status.OK;
+            }
+            return ok;
+        }
+    }
+
+    private static void begin(Stats stats, String name) {
+
+        if (stats != null) {
+            stats.begin(name);
+        }
+    }
+
+    private static void end(Stats stats, String name) {
+
+        if (stats != null) {
+            stats.end(name);
+        }
+    }
+
+    private static void printStats(Options options, Stats stats) {
+
+        stats.print(System.err);
+        if (options.memJcStatsFile != null) {
+            try {
+                stats.writeJson(options.memJcStatsFile);
+            } catch (Exception ex) {
+                printError(options, ex);
             }
         }
     }
+
+    private static void printError(Options options, Exception ex) {
+
+        if (options.memJcErrDetail) {
+            ex.printStackTrace(System.err);
+        } else {
+            System.err.println(ex.toString());
+        }
+    }
 }
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+// defines classes straight from the class store, then looks up the class path through an index
+public final class MemoryClassLoader extends URLClassLoader {
+
+    private static final String CLASS_EXTENSION = ".class";
+    private static final Object MISSING = new Object();
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final ClassStore store;
+    // reads memjc: URLs of classes in the store
+    private final Handler storeHandler;
+    // class path entries in order, null if one of them can not be indexed
+    private final List<Root> roots;
+    // resource name to the first entry holding it, or MISSING
+    private final Map<String, Object> resources = new ConcurrentHashMap<>();
+    // classes found neither by the parent nor on the class path
+    private final Set<String> missingClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // package name to the Package defined by this loader, or MISSING if another loader defined it
+    private final Map<String, Object> packages = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile SourceCompiler sourceCompiler;
+
+    private abstract static class Root {
+
+        protected final URL url;
+        private final CodeSource codeSource;
+
+        public Root(URL url) {
+
+            this.url = url;
+            this.codeSource = new CodeSource(url, (Certificate[]) null);
+        }
+
+        // versions and sealing of the packages, null if there is none
+        public Manifest getManifest() throws IOException {
+
+            return null;
+        }
+
+        public abstract boolean contains(String name) throws IOException;
+
+        public abstract byte[] getBytes(String name) throws IOException;
+
+        public abstract URL getResource(String name) throws IOException;
+    }
+
+    // file names of a directory are listed once per package
+    private static class DirectoryRoot extends Root {
+
+        private final Path dir;
+        private final Map<String, Set<String>> listings = new ConcurrentHashMap<>();
+
+        public DirectoryRoot(URL url, Path dir) {
+
+            super(url);
+            this.dir = dir;
+        }
+
+        @Override
+        public boolean contains(String name) throws IOException {
+
+            if (name.startsWith("/") || name.contains("..")) {
+                return false;
+            }
+            int index = name.lastIndexOf('/');
+            String packageDir = name.substring(0, index + 1);
+            Set<String> names = listings.get(packageDir);
+            if (names == null) {
+                names = new HashSet<>();
+                Path path = dir.resolve(packageDir);
+                if (Files.isDirectory(path)) {
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                        for (Path child : stream) {
+                            names.add(child.getFileName().toString());
+                        }
+                    }
+                }
+                listings.put(packageDir, names);
+            }
+            return names.contains(name.substring(index + 1));
+        }
+
+        @Override
+        public byte[] getBytes(String name) throws IOException {
+
+            return Files.readAllBytes(dir.resolve(name));
+        }
+
+        @Override
+        public URL getResource(String name) throws IOException {
+
+            return dir.resolve(name).toUri().toURL();
+        }
+    }
+
+    private static class JarRoot extends Root {
+
+        private final JarIndex index;
+        private volatile Object manifest;
+
+        public JarRoot(URL url, JarIndex index) {
+
+            super(url);
+            this.index = index;
+        }
+
+        @Override
+        public Manifest getManifest() throws IOException {
+
+            // read once, the first class of each package asks for it
+            if (manifest == null) {
+                JarIndex.Entry entry = index.getEntry(JarFile.MANIFEST_NAME);
+                manifest = entry == null ? MISSING : new Manifest(new ByteArrayInputStream(entry.getBytes()));
+            }
+            return manifest == MISSING ? null : (Manifest) manifest;
+        }
+
+        @Override
+        public boolean contains(String name) {
+
+            return index.getEntry(name) != null;
+        }
+
+        @Override
+        public byte[] getBytes(String name) throws IOException {
+
+            return index.getEntry(name).getBytes();
+        }
+
+        @Override
+        public URL getResource(String name) throws IOException {
+
+            return new URL("jar:" + url + "!/" + name);
+        }
+    }
+
+    // compiles the source of a class missing from the store (see OnDemandCompiler)
+    public interface SourceCompiler {
+
+        // true if the class is in the store now
+        boolean compile(String className);
+    }
+
+    public MemoryClassLoader(ClassStore store, URL[] urls, ClassLoader parent) {
+
+        super(urls, parent);
+        this.store = store;
+        this.storeHandler = new Handler(store);
+        this.roots = getRoots(urls);
+    }
+
+    private static List<Root> getRoots(URL[] urls) {
+
+        List<Root> roots = new ArrayList<>();
+        Set<String> added = new HashSet<>();
+        try {
+            for (URL url : urls) {
+                if (!"file".equals(url.getProtocol())) {
+                    return null;
+                }
+                // URLClassLoader searches the same URL once
+                if (!added.add(url.toString())) {
+                    continue;
+                }
+                Path path = Paths.get(url.toURI());
+                if (Files.isDirectory(path)) {
+                    roots.add(new DirectoryRoot(url, path));
+                } else if (Files.isRegularFile(path)) {
+                    JarIndex index = JarIndex.get(path.toFile());
+                    if (index == null) {
+                        return null;
+                    }
+                    roots.add(new JarRoot(url, index));
+                }
+            }
+        } catch (IOException | URISyntaxException ex) {
+            // URLClassLoader reports the entry when it is used
+            return null;
+        }
+        return roots;
+    }
+
+    public void setSourceCompiler(SourceCompiler sourceCompiler) {
+
+        this.sourceCompiler = sourceCompiler;
+    }
+
+    // lookups answered by the class store or the index
+    public long getLookupHits() {
+
+        return hits.get();
+    }
+
+    // lookups of names that are not on the class path
+    public long getLookupMisses() {
+
+        return misses.get();
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+
+        // ServiceLoader and resource bundles probe the same missing names again
+        if (missingClasses.contains(name) && !store.contains(name)) {
+            misses.incrementAndGet();
+            throw new ClassNotFoundException(name);
+        }
+        try {
+            return super.loadClass(name, resolve);
+        } catch (ClassNotFoundException ex) {
+            if (roots != null) {
+                missingClasses.add(name);
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+
+        byte[] bytes = store.get(name);
+        // a source wins over an old class file on the class path
+        if (bytes == null && sourceCompiler != null && sourceCompiler.compile(name)) {
+            bytes = store.get(name);
+        }
+        if (bytes != null) {
+            hits.incrementAndGet();
+            definePackageOf(name, null, null);
+            Class<?> clazz = defineClass(name, bytes, 0, bytes.length);
+            // a bounded store may drop the bytes once this loader is gone
+            store.defined(name, this);
+            return clazz;
+        }
+        if (roots == null) {
+            return super.findClass(name);
+        }
+
+        String resourceName = name.replace('.', '/') + CLASS_EXTENSION;
+        Root root = find(resourceName);
+        if (root == null) {
+            throw new ClassNotFoundException(name);
+        }
+        try {
+            bytes = root.getBytes(resourceName);
+            definePackageOf(name, root.getManifest(), root.url);
+        } catch (IOException ex) {
+            throw new ClassNotFoundException(name, ex);
+        }
+        return defineClass(name, bytes, 0, bytes.length, root.codeSource);
+    }
+
+    private Root find(String name) {
+
+        Object root = resources.get(name);
+        if (root == null) {
+            root = MISSING;
+            try {
+                for (Root entry : roots) {
+                    if (entry.contains(name)) {
+                        root = entry;
+                        break;
+                    }
+                }
+            } catch (IOException ex) {
+                // not readable, same as missing
+            }
+            resources.put(name, root);
+        }
+
+        if (root == MISSING) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return (Root) root;
+    }
+
+    // like URLClassLoader, the attributes of a jar class come from the manifest of its jar
+    private void definePackageOf(String className, Manifest manifest, URL url) {
+
+        int index = className.lastIndexOf('.');
+        if (index == -1) {
+            return;
+        }
+        String packageName = className.substring(0, index);
+        Object pkg = packages.get(packageName);
+        if (pkg == null) {
+            synchronized (packages) {
+                pkg = packages.get(packageName);
+                if (pkg == null) {
+                    try {
+                        if (manifest != null) {
+                            pkg = definePackage(packageName, manifest, url);
+                        } else {
+                            pkg = definePackage(packageName, null, null, null, null, null, null, null);
+                        }
+                    } catch (IllegalArgumentException ex) {
+                        // defined by URLClassLoader.findClass
+                        pkg = MISSING;
+                    }
+                    packages.put(packageName, pkg);
+                }
+            }
+        }
+        // classes of a sealed package must come from the same jar, the store may override it
+        if (url != null && pkg != MISSING && ((Package) pkg).isSealed() && !((Package) pkg).isSealed(url)) {
+            throw new SecurityException("sealing violation: package " + packageName + " is sealed");
+        }
+    }
+
+    // a class of the store as a memjc: URL, read like getResourceAsStream
+    private URL findStoreResource(String name) {
+
+        if (!name.endsWith(CLASS_EXTENSION)) {
+            return null;
+        }
+        String className = name.substring(0, name.length() - CLASS_EXTENSION.length()).replace('/', '.');
+        if (!store.contains(className)) {
+            return null;
+        }
+        try {
+            return new URL(Session.MEMJC_SCHEME, null, -1, "/" + name, storeHandler);
+        } catch (MalformedURLException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+
+        URL storeUrl = findStoreResource(name);
+        if (storeUrl != null) {
+            return storeUrl;
+        }
+        // directories are left to URLClassLoader, jar indexes hold files only
+        if (roots == null || name.endsWith("/")) {
+            return super.findResource(name);
+        }
+        Root root = find(name);
+        if (root == null) {
+            return null;
+        }
+        try {
+            return root.getResource(name);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+
+        URL storeUrl = findStoreResource(name);
+        if (roots == null || name.endsWith("/")) {
+            if (storeUrl == null) {
+                return super.findResources(name);
+            }
+            List<URL> urls = new ArrayList<>();
+            urls.add(storeUrl);
+            urls.addAll(Collections.list(super.findResources(name)));
+            return Collections.enumeration(urls);
+        }
+        List<URL> urls = new ArrayList<>();
+        if (storeUrl != null) {
+            urls.add(storeUrl);
+        }
+        if (find(name) != null) {
+            for (Root root : roots) {
+                if (root.contains(name)) {
+                    urls.add(root.getResource(name));
+                }
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+
+        if (name.endsWith(CLASS_EXTENSION)) {
+            String className = name.substring(0, name.length() - CLASS_EXTENSION.length()).replace('/', '.');
+            byte[] bytes = store.get(className);
+            if (bytes != null) {
+                return new ByteArrayInputStream(bytes);
+            }
+        }
+        return super.getResourceAsStream(name);
+    }
+}
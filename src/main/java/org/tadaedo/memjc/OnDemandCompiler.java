@@ -0,0 +1,332 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+// compiles the entry class first, then the source of each class the run class loader misses (-Mlazy),
+// javac reads other sources for their signatures only (-implicit:none)
+public final class OnDemandCompiler implements MemoryClassLoader.SourceCompiler {
+
+    public static final int DEFAULT_BATCH_SIZE = 4;
+    private static final String JAVA_SUFFIX = ".java";
+
+    private final Session session;
+    private final Compiler compiler;
+    private final List<String> opts;
+    private final int batchSize;
+    // listed sources by top level class name
+    private final Map<String, String> sources = new HashMap<>();
+    // listed sources that declare classes javac can't find by file name on the source path
+    private final Set<String> secondarySources = new LinkedHashSet<>();
+    // source path roots searched for class names not listed
+    private final List<Path> roots = new ArrayList<>();
+    // sources compiled or failed, not compiled again
+    private final Set<String> compiled = new HashSet<>();
+    private int batches;
+    private long time;
+
+    public OnDemandCompiler(Session session, List<String> opts, List<String> filePaths, int batchSize)
+            throws IOException {
+
+        this.session = session;
+        this.compiler = new Compiler(session, true, false);
+        this.batchSize = batchSize;
+
+        Set<String> sourcePaths = new LinkedHashSet<>();
+        for (String filePath : filePaths) {
+            String path = getAbsolutePath(filePath);
+            String content = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.ISO_8859_1);
+            Matcher matcher = SourcePartitioner.PACKAGE_PATTERN.matcher(content);
+            String prefix = matcher.find() ? matcher.group(1) + "." : "";
+            // a source may declare more top level classes than the one of its file name
+            Set<String> names = getTopLevelNames(path, content);
+            for (String simpleName : names) {
+                sources.put(prefix + simpleName, path);
+            }
+            if (names.size() > 1) {
+                secondarySources.add(path);
+            }
+            sourcePaths.add(getSourceRoot(path, prefix));
+        }
+        this.opts = getOptions(opts, sourcePaths);
+    }
+
+    // the options with -implicit:none and a source path that also holds the package roots of the sources
+    private List<String> getOptions(List<String> opts, Set<String> sourcePaths) {
+
+        List<String> result = new ArrayList<>();
+        Set<String> paths = new LinkedHashSet<>();
+        for (int i = 0; i < opts.size(); i++) {
+            String opt = opts.get(i);
+            if (opt.equals("-sourcepath") && i + 1 < opts.size()) {
+                paths.addAll(splitPath(opts.get(++i)));
+            } else if ((opt.equals("-cp") || opt.equals("-classpath")) && i + 1 < opts.size()) {
+                // javac looks for sources on the class path without -sourcepath
+                if (!opts.contains("-sourcepath")) {
+                    paths.addAll(splitPath(opts.get(i + 1)));
+                }
+                result.add(opt);
+                result.add(opts.get(++i));
+            } else if (!opt.startsWith("-implicit:")) {
+                result.add(opt);
+            }
+        }
+        paths.addAll(sourcePaths);
+
+        StringBuilder sourcePath = new StringBuilder();
+        for (String path : paths) {
+            if (Files.isDirectory(Paths.get(path))) {
+                roots.add(Paths.get(getAbsolutePath(path)));
+                if (sourcePath.length() > 0) {
+                    sourcePath.append(File.pathSeparator);
+                }
+                sourcePath.append(path);
+            }
+        }
+        result.add("-sourcepath");
+        result.add(sourcePath.toString());
+        result.add("-implicit:none");
+        return result;
+    }
+
+    private static String getAbsolutePath(String path) {
+
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+
+    private static List<String> splitPath(String path) {
+
+        List<String> paths = new ArrayList<>();
+        for (String entry : path.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                paths.add(entry);
+            }
+        }
+        return paths;
+    }
+
+    // the names of the classes declared outside any braces, the file name first
+    static Set<String> getTopLevelNames(String path, String content) {
+
+        Set<String> names = new LinkedHashSet<>();
+        String fileName = Paths.get(path).getFileName().toString();
+        names.add(fileName.substring(0, fileName.length() - JAVA_SUFFIX.length()));
+
+        int depth = 0;
+        boolean declaration = false;
+        char previous = 0;
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (c == '/' && i + 1 < length && content.charAt(i + 1) == '/') {
+                i = content.indexOf('\n', i);
+                if (i == -1) {
+                    break;
+                }
+            } else if (c == '/' && i + 1 < length && content.charAt(i + 1) == '*') {
+                i = content.indexOf("*/", i + 2);
+                if (i == -1) {
+                    break;
+                }
+                i++;
+            } else if (c == '"' || c == '\'') {
+                // string and character literals
+                for (i++; i < length && content.charAt(i) != c; i++) {
+                    if (content.charAt(i) == '\\') {
+                        i++;
+                    }
+                }
+                previous = c;
+            } else if (c == '{') {
+                depth++;
+                declaration = false;
+                previous = c;
+            } else if (c == '}') {
+                depth--;
+                previous = c;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i + 1 < length && Character.isJavaIdentifierPart(content.charAt(i + 1))) {
+                    i++;
+                }
+                String word = content.substring(start, i + 1);
+                if (depth == 0) {
+                    if (declaration) {
+                        names.add(word);
+                        declaration = false;
+                    } else if (previous != '.' && (word.equals("class") || word.equals("interface")
+                            || word.equals("enum") || word.equals("record"))) {
+                        // also the interface of an annotation type, not a class literal
+                        declaration = true;
+                    }
+                }
+                previous = 'a';
+            } else if (!Character.isWhitespace(c)) {
+                previous = c;
+            }
+        }
+        return names;
+    }
+
+    // the directory above the package directories of the source
+    private static String getSourceRoot(String path, String packagePrefix) {
+
+        Path root = Paths.get(path).getParent();
+        for (int i = packagePrefix.indexOf('.'); i != -1; i = packagePrefix.indexOf('.', i + 1)) {
+            if (root.getParent() != null) {
+                root = root.getParent();
+            }
+        }
+        return root.toString();
+    }
+
+    public int getCompiledCount() {
+
+        return compiled.size();
+    }
+
+    public int getBatchCount() {
+
+        return batches;
+    }
+
+    // nanoseconds spent in javac
+    public long getTime() {
+
+        return time;
+    }
+
+    // compiles the entry class before the run
+    public synchronized boolean compileEntry(String className) throws IOException {
+
+        String path = findSource(className);
+        if (path == null) {
+            throw new IOException("no source for " + className);
+        }
+        return compileBatch(path);
+    }
+
+    // called by the class loader for a class missing from the store
+    @Override
+    public synchronized boolean compile(String className) {
+
+        if (session.getClassStore().contains(className)) {
+            return true;
+        }
+        String path = findSource(className);
+        if (path == null || compiled.contains(path)) {
+            return false;
+        }
+        try {
+            compileBatch(path);
+        } catch (IOException ex) {
+            return false;
+        }
+        return session.getClassStore().contains(className);
+    }
+
+    // the source of a top level class, nested classes are compiled with it
+    private String findSource(String className) {
+
+        int index = className.indexOf('$');
+        String topLevel = index == -1 ? className : className.substring(0, index);
+        String path = sources.get(topLevel);
+        if (path != null) {
+            return path;
+        }
+        String relative = topLevel.replace('.', File.separatorChar) + JAVA_SUFFIX;
+        for (Path root : roots) {
+            Path source = root.resolve(relative);
+            if (Files.isRegularFile(source)) {
+                return source.toString();
+            }
+        }
+        return null;
+    }
+
+    // the source and a few not compiled sources next to it, classes of a package are often used together
+    private boolean compileBatch(String path) throws IOException {
+
+        List<String> batch = new ArrayList<>();
+        batch.add(path);
+        List<String> required = new ArrayList<>();
+        for (String secondary : secondarySources) {
+            if (!secondary.equals(path) && !compiled.contains(secondary)) {
+                required.add(secondary);
+            }
+        }
+        batch.addAll(required);
+        if (batchSize > 1) {
+            List<String> siblings = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(path).getParent(),
+                    "*" + JAVA_SUFFIX)) {
+                for (Path sibling : stream) {
+                    siblings.add(sibling.toString());
+                }
+            }
+            Collections.sort(siblings);
+            for (String sibling : siblings) {
+                if (batch.size() >= batchSize + required.size()) {
+                    break;
+                }
+                if (!batch.contains(sibling) && !compiled.contains(sibling)) {
+                    batch.add(sibling);
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            CompileDiagnostics diagnostics = new CompileDiagnostics(Integer.MAX_VALUE, 0);
+            compiler.setDiagnostics(diagnostics);
+            boolean success = compiler.compile(opts, batch);
+            compiler.setDiagnostics(null);
+            if (success || batch.size() == 1 + required.size()) {
+                for (CompileDiagnostic diagnostic : diagnostics.getDiagnostics()) {
+                    System.err.println(diagnostic);
+                }
+                compiled.addAll(batch);
+                return success;
+            }
+
+            // a broken source next to it, javac reports the errors of the source alone
+            List<String> alone = new ArrayList<>();
+            alone.add(path);
+            alone.addAll(required);
+            compiled.addAll(alone);
+            return compiler.compile(opts, alone);
+        } finally {
+            time += System.nanoTime() - start;
+            batches++;
+        }
+    }
+}
@@ -21,7 +21,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public final class Options {
 
@@ -34,6 +36,32 @@ public final class Options {
     private static final String MEMJC_OPTION_RUN = MEMJC_PREFIX + "main";
     private static final String MEMJC_OPTION_CLASSPATH = MEMJC_PREFIX + "cp";
     private static final String MEMJC_OPTION_ERR_DETAIL = MEMJC_PREFIX + "debug";
+    private static final String MEMJC_OPTION_DAEMON = MEMJC_PREFIX + "daemon";
+    private static final String MEMJC_OPTION_INCREMENTAL = MEMJC_PREFIX + "incremental";
+    private static final String MEMJC_OPTION_PARALLEL = MEMJC_PREFIX + "parallel";
+    private static final String MEMJC_OPTION_BENCH = MEMJC_PREFIX + "bench";
+    private static final String MEMJC_BENCH_RELOAD = "reload";
+    private static final String MEMJC_BENCH_JSON = "json";
+    private static final String MEMJC_OPTION_STATS = MEMJC_PREFIX + "stats";
+    private static final String MEMJC_OPTION_JAR = MEMJC_PREFIX + "jar";
+    private static final String MEMJC_JAR_STORED = "stored";
+    private static final String MEMJC_OPTION_CACHE = MEMJC_PREFIX + "cache";
+    private static final String MEMJC_OPTION_WATCH = MEMJC_PREFIX + "watch";
+    private static final String MEMJC_OPTION_STORE = MEMJC_PREFIX + "store";
+    private static final String MEMJC_STORE_COMPRESS = "compress";
+    private static final String MEMJC_OPTION_CDS_DUMP = MEMJC_PREFIX + "cds-dump";
+    private static final String MEMJC_OPTION_RUN_ALL = MEMJC_PREFIX + "runall";
+    private static final String MEMJC_OPTION_DIAGNOSTICS = MEMJC_PREFIX + "diagnostics";
+    private static final String MEMJC_DIAGNOSTICS_JSON = "json";
+    private static final String MEMJC_OPTION_FAIL_FAST = MEMJC_PREFIX + "failfast";
+    private static final String MEMJC_OPTION_BATCH = MEMJC_PREFIX + "batch";
+    private static final String MEMJC_BATCH_RUN = "run";
+    private static final String MEMJC_OPTION_PROFILE = MEMJC_PREFIX + "profile";
+    private static final String MEMJC_OPTION_PRELOAD = MEMJC_PREFIX + "preload";
+    private static final String MEMJC_OPTION_SRC = MEMJC_PREFIX + "src";
+    private static final String MEMJC_OPTION_SINCE = MEMJC_PREFIX + "since";
+    private static final String MEMJC_OPTION_LAZY = MEMJC_PREFIX + "lazy";
+    private static final String MEMJC_PROFILE_ALL = "all";
 
     public enum Type {
         JAVAFILE,
@@ -53,6 +81,72 @@ public final class Options {
     public String memJcRunClassName = "";
     public final List<String> memJcClassArgs = new ArrayList<>();
     public final List<String> memJcClassPaths = new ArrayList<>();
+    public boolean memJcDaemon = false;
+    public int memJcDaemonPort = Daemon.DEFAULT_PORT;
+    public boolean memJcIncremental = false;
+    public int memJcParallelism = 1;
+    public boolean memJcBench = false;
+    public int memJcBenchWarmup = 5;
+    public int memJcBenchIterations = 10;
+    public boolean memJcBenchReload = false;
+    public boolean memJcBenchJson = false;
+    public boolean memJcStats = false;
+    public String memJcStatsFile = null;
+    public String memJcJarFile = null;
+    public boolean memJcJarStored = false;
+    public String memJcCacheDir = null;
+    public long memJcCacheMaxBytes = CompileCache.DEFAULT_MAX_BYTES;
+    public boolean memJcWatch = false;
+    public long memJcWatchDebounce = Watch.DEFAULT_DEBOUNCE;
+    public long memJcStoreMaxBytes = 0;
+    public boolean memJcStoreCompress = false;
+    public boolean memJcCdsDump = false;
+    public String memJcCdsArchive = null;
+    // the -Mcds-dump argument, left out of the training run
+    public String memJcCdsDumpArg = null;
+    public boolean memJcRunAll = false;
+    public int memJcRunAllThreads = Runtime.getRuntime().availableProcessors();
+    public long memJcRunAllTimeout = 0;
+    public boolean memJcDiagnostics = false;
+    public int memJcDiagnosticsMax = CompileDiagnostics.DEFAULT_MAX_DIAGNOSTICS;
+    public boolean memJcDiagnosticsJson = false;
+    // errors that abort the compile, 0 compiles to the end
+    public int memJcFailFastErrors = 0;
+    // directory or manifest of -Mbatch
+    public String memJcBatch = null;
+    public int memJcBatchThreads = Runtime.getRuntime().availableProcessors();
+    public boolean memJcBatchRun = false;
+    public long memJcBatchTimeout = 0;
+    public boolean memJcProfile = false;
+    public long memJcProfileInterval = Profiler.DEFAULT_INTERVAL;
+    public boolean memJcProfileAll = false;
+    public String memJcProfileFile = null;
+    // threads that load the compiled classes before main, 0 loads them lazily
+    public int memJcPreloadThreads = 0;
+    // directories and glob patterns of -Msrc, found by findSources
+    public final List<String> memJcSrc = new ArrayList<>();
+    // its mtime is the time of the last successful compile
+    public String memJcSinceFile = null;
+    public long memJcSrcScanTime = 0;
+    // compile the main class only, other classes when the run first uses them
+    public boolean memJcLazy = false;
+    public int memJcLazyBatch = OnDemandCompiler.DEFAULT_BATCH_SIZE;
+
+    // working directory of the caller (null is the current directory)
+    private final String workDir;
+    private final String classPathEnv;
+
+    public Options() {
+
+        this(null, System.getenv("CLASSPATH"));
+    }
+
+    // workDir and CLASSPATH of the client of a daemon
+    public Options(String workDir, String classPathEnv) {
+
+        this.workDir = workDir;
+        this.classPathEnv = classPathEnv;
+    }
 
     public boolean setOptions(String[] args) throws IOException {
 
@@ -84,21 +178,150 @@ public final class Options {
                 case MEMJC_OPTION_CLASSPATH:
                     if (memArgs.length >= 2) {
                         String sep = getOptionSeparator();
-                        memJcClassPaths.addAll(Arrays.asList(memArgs[1].split(sep)));
+                        for (String classPath : memArgs[1].split(sep)) {
+                            memJcClassPaths.add(resolvePath(classPath));
+                        }
                     }
                     break;
                 case MEMJC_OPTION_ERR_DETAIL:
                     memJcErrDetail = true;
                     break;
+                case MEMJC_OPTION_DAEMON:
+                    memJcDaemon = true;
+                    if (memArgs.length >= 2) {
+                        memJcDaemonPort = Integer.parseInt(memArgs[1]);
+                    }
+                    break;
+                case MEMJC_OPTION_INCREMENTAL:
+                    memJcIncremental = true;
+                    break;
+                case MEMJC_OPTION_PARALLEL:
+                    if (memArgs.length >= 2) {
+                        memJcParallelism = Integer.parseInt(memArgs[1]);
+                    } else {
+                        memJcParallelism = Runtime.getRuntime().availableProcessors();
+                    }
+                    break;
+                case MEMJC_OPTION_STATS:
+                    memJcStats = true;
+                    if (memArgs.length >= 2) {
+                        memJcStatsFile = resolvePath(memArgs[1]);
+                    }
+                    break;
+                case MEMJC_OPTION_JAR:
+                    if (memArgs.length < 2) {
+                        throw new RuntimeException(MEMJC_OPTION_JAR + " requires a jar file");
+                    }
+                    String[] jarArgs = memArgs[1].split(":");
+                    memJcJarFile = resolvePath(jarArgs[0]);
+                    memJcJarStored = jarArgs.length >= 2 && MEMJC_JAR_STORED.equals(jarArgs[1]);
+                    break;
+                case MEMJC_OPTION_CACHE:
+                    memJcCacheDir = CompileCache.getDefaultDirectory().toString();
+                    if (memArgs.length >= 2) {
+                        setCacheOptions(memArgs[1]);
+                    }
+                    break;
+                case MEMJC_OPTION_WATCH:
+                    memJcWatch = true;
+                    if (memArgs.length >= 2) {
+                        memJcWatchDebounce = Long.parseLong(memArgs[1]);
+                    }
+                    break;
+                case MEMJC_OPTION_STORE:
+                    if (memArgs.length < 2) {
+                        throw new RuntimeException(MEMJC_OPTION_STORE + " requires a size in MB");
+                    }
+                    String[] storeArgs = memArgs[1].split(":");
+                    memJcStoreMaxBytes = Long.parseLong(storeArgs[0]) * 1024 * 1024;
+                    memJcStoreCompress = storeArgs.length >= 2 && MEMJC_STORE_COMPRESS.equals(storeArgs[1]);
+                    break;
+                case MEMJC_OPTION_RUN_ALL:
+                    memJcRunAll = true;
+                    if (memArgs.length >= 2) {
+                        String[] runAllArgs = memArgs[1].split(":");
+                        memJcRunAllThreads = Integer.parseInt(runAllArgs[0]);
+                        if (runAllArgs.length >= 2) {
+                            memJcRunAllTimeout = Long.parseLong(runAllArgs[1]);
+                        }
+                    }
+                    break;
+                case MEMJC_OPTION_DIAGNOSTICS:
+                    memJcDiagnostics = true;
+                    if (memArgs.length >= 2) {
+                        for (String diagArg : memArgs[1].split(":")) {
+                            if (MEMJC_DIAGNOSTICS_JSON.equals(diagArg)) {
+                                memJcDiagnosticsJson = true;
+                            } else {
+                                memJcDiagnosticsMax = Integer.parseInt(diagArg);
+                            }
+                        }
+                    }
+                    break;
+                case MEMJC_OPTION_FAIL_FAST:
+                    memJcFailFastErrors = memArgs.length >= 2 ? Integer.parseInt(memArgs[1]) : 1;
+                    if (memJcFailFastErrors < 1) {
+                        throw new RuntimeException(MEMJC_OPTION_FAIL_FAST + " requires at least 1 error");
+                    }
+                    break;
+                case MEMJC_OPTION_BATCH:
+                    if (memArgs.length < 2) {
+                        throw new RuntimeException(MEMJC_OPTION_BATCH + " requires a directory or manifest");
+                    }
+                    setBatchOptions(memArgs[1]);
+                    break;
+                case MEMJC_OPTION_PROFILE:
+                    memJcProfile = true;
+                    memJcProfileFile = resolvePath(Profiler.DEFAULT_FILE);
+                    if (memArgs.length >= 2) {
+                        setProfileOptions(memArgs[1]);
+                    }
+                    break;
+                case MEMJC_OPTION_PRELOAD:
+                    if (memArgs.length >= 2) {
+                        memJcPreloadThreads = Integer.parseInt(memArgs[1]);
+                    } else {
+                        memJcPreloadThreads = Runtime.getRuntime().availableProcessors();
+                    }
+                    break;
+                case MEMJC_OPTION_SRC:
+                    if (memArgs.length < 2) {
+                        throw new RuntimeException(MEMJC_OPTION_SRC + " requires a directory or pattern");
+                    }
+                    memJcSrc.add(resolvePath(memArgs[1]));
+                    break;
+                case MEMJC_OPTION_SINCE:
+                    if (memArgs.length < 2) {
+                        throw new RuntimeException(MEMJC_OPTION_SINCE + " requires a file");
+                    }
+                    memJcSinceFile = resolvePath(memArgs[1]);
+                    break;
+                case MEMJC_OPTION_LAZY:
+                    memJcLazy = true;
+                    if (memArgs.length >= 2) {
+                        memJcLazyBatch = Integer.parseInt(memArgs[1]);
+                    }
+                    break;
+                case MEMJC_OPTION_CDS_DUMP:
+                    memJcCdsDump = true;
+                    memJcCdsDumpArg = arg;
+                    memJcCdsArchive = memArgs.length >= 2 ? resolvePath(memArgs[1]) : CdsDump.getDefaultArchive();
+                    break;
+                case MEMJC_OPTION_BENCH:
+                    memJcBench = true;
+                    if (memArgs.length >= 2) {
+                        setBenchOptions(memArgs[1].split(":"));
+                    }
+                    break;
                 default:
                     throw new RuntimeException("Unrecognized option: " + arg);
                 }
                 break;
             case ARGFILE:
-                setOptions(readArgfile(arg));
+                setOptions(readArgfile(resolvePath(arg.substring(1))));
                 break;
             case JAVAFILE:
-                files.add(arg);
+                files.add(resolvePath(arg));
                 break;
             case OPTION:
             default:
@@ -110,11 +333,10 @@ public final class Options {
         // default java option
         if (!opts.contains("-cp") && !opts.contains("-classpath")) {
             opts.add("-cp");
-            String classPath = System.getenv("CLASSPATH");
-            if (classPath == null) {
-                opts.add(System.getProperty("user.dir"));
+            if (classPathEnv == null) {
+                opts.add(workDir == null ? System.getProperty("user.dir") : workDir);
             } else {
-                opts.add(classPath);
+                opts.add(classPathEnv);
             }
         }
 
@@ -125,13 +347,110 @@ public final class Options {
             if (cpIndex != -1 && (cpIndex + 1) < opts.size()) {
                 String javacCp = opts.get(cpIndex + 1);
                 String sep = getOptionSeparator();
-                memJcClassPaths.addAll(Arrays.asList(javacCp.split(sep)));
+                StringBuilder resolvedCp = new StringBuilder();
+                for (String classPath : javacCp.split(sep)) {
+                    classPath = resolvePath(classPath);
+                    memJcClassPaths.add(classPath);
+                    if (resolvedCp.length() > 0) {
+                        resolvedCp.append(sep);
+                    }
+                    resolvedCp.append(classPath);
+                }
+                if (workDir != null) {
+                    opts.set(cpIndex + 1, resolvedCp.toString());
+                }
             }
         }
 
+        if (memJcLazy && (!memJcRun || memJcBench || memJcRunAll)) {
+            throw new RuntimeException(MEMJC_OPTION_LAZY + " requires " + MEMJC_OPTION_RUN + " without "
+                    + MEMJC_OPTION_BENCH + " and " + MEMJC_OPTION_RUN_ALL);
+        }
+
+        if (memJcProfile && !memJcRun) {
+            throw new RuntimeException(MEMJC_OPTION_PROFILE + " requires " + MEMJC_OPTION_RUN);
+        }
+
+        if (memJcBench && !memJcRun) {
+            throw new RuntimeException(MEMJC_OPTION_BENCH + " requires " + MEMJC_OPTION_RUN);
+        }
+
         return true;
     }
 
+    private void setBenchOptions(String[] benchArgs) {
+
+        int counts = 0;
+        for (String benchArg : benchArgs) {
+            switch (benchArg) {
+            case MEMJC_BENCH_RELOAD:
+                memJcBenchReload = true;
+                break;
+            case MEMJC_BENCH_JSON:
+                memJcBenchJson = true;
+                break;
+            default:
+                if (counts++ == 0) {
+                    memJcBenchWarmup = Integer.parseInt(benchArg);
+                } else {
+                    memJcBenchIterations = Integer.parseInt(benchArg);
+                }
+                break;
+            }
+        }
+        if (memJcBenchWarmup < 0) {
+            throw new RuntimeException("Benchmark warmup must not be negative: " + memJcBenchWarmup);
+        }
+        if (memJcBenchIterations < 1) {
+            throw new RuntimeException("Benchmark iterations must be positive: " + memJcBenchIterations);
+        }
+    }
+
+    // adds the sources of -Msrc, modified since the -Msince file if it exists
+    public void findSources() throws IOException {
+
+        if (memJcSrc.isEmpty()) {
+            return;
+        }
+        long since = 0;
+        if (memJcSinceFile != null && new File(memJcSinceFile).isFile()) {
+            since = new File(memJcSinceFile).lastModified();
+        }
+        // taken before the walk, a file saved during it is found by the next one
+        memJcSrcScanTime = System.currentTimeMillis();
+
+        SourceFinder finder = new SourceFinder(since);
+        Set<String> known = new HashSet<>(files);
+        for (String pattern : memJcSrc) {
+            for (String path : finder.find(pattern)) {
+                if (known.add(path)) {
+                    files.add(path);
+                }
+            }
+        }
+    }
+
+    // the option of a mode that needs its own JVM, null if the daemon can run the request
+    public String getLocalOnlyOption() {
+
+        if (memJcDaemon) {
+            return MEMJC_OPTION_DAEMON;
+        } else if (memJcWatch) {
+            return MEMJC_OPTION_WATCH;
+        } else if (memJcCdsDump) {
+            return MEMJC_OPTION_CDS_DUMP;
+        }
+        return null;
+    }
+
+    private String resolvePath(String path) {
+
+        if (workDir == null || path.isEmpty() || new File(path).isAbsolute()) {
+            return path;
+        }
+        return new File(workDir, path).getPath();
+    }
+
     private static String getOptionSeparator() {
 
         if (File.separatorChar == '\\') {
@@ -143,12 +462,13 @@ public final class Options {
 
     private Type isType(String arg) {
 
+        // memjc options first, -Msrc:src/**/*.java is not a source
         if (arg.startsWith("@")) {
             return Type.ARGFILE;
-        } else if (arg.endsWith(".java")) {
-            return Type.JAVAFILE;
         } else if (arg.startsWith(MEMJC_PREFIX) || arg.startsWith(MEMJC_LONG_PREFIX)) {
             return Type.MEMJCOPTION;
+        } else if (arg.endsWith(".java")) {
+            return Type.JAVAFILE;
         } else {
             return Type.OPTION;
         }
@@ -169,6 +489,70 @@ public final class Options {
         }
     }
 
+    private void setCacheOptions(String cacheArgs) {
+
+        // <dir>[:<max MB>], the directory may contain a drive letter
+        String dir = cacheArgs;
+        int index = cacheArgs.lastIndexOf(':');
+        if (index != -1 && cacheArgs.substring(index + 1).matches("[0-9]+")) {
+            memJcCacheMaxBytes = Long.parseLong(cacheArgs.substring(index + 1)) * 1024 * 1024;
+            dir = cacheArgs.substring(0, index);
+        }
+        if (!dir.isEmpty()) {
+            memJcCacheDir = resolvePath(dir);
+        }
+    }
+
+    private void setProfileOptions(String profileArgs) {
+
+        // [<interval ms>][:all][:<collapsed file>], the file may contain a drive letter
+        String[] parts = profileArgs.split(":", 3);
+        int index = 0;
+        if (index < parts.length && parts[index].matches("[0-9]+")) {
+            memJcProfileInterval = Long.parseLong(parts[index++]);
+        }
+        if (index < parts.length && MEMJC_PROFILE_ALL.equals(parts[index])) {
+            memJcProfileAll = true;
+            index++;
+        }
+        StringBuilder file = new StringBuilder();
+        for (; index < parts.length; index++) {
+            if (file.length() > 0) {
+                file.append(':');
+            }
+            file.append(parts[index]);
+        }
+        if (file.length() > 0) {
+            memJcProfileFile = resolvePath(file.toString());
+        }
+    }
+
+    private void setBatchOptions(String batchArgs) {
+
+        // <dir or manifest>[:<threads>][:run[:<timeout ms>]], the path may contain a drive letter
+        List<String> parts = new ArrayList<>(Arrays.asList(batchArgs.split(":")));
+        int runIndex = parts.lastIndexOf(MEMJC_BATCH_RUN);
+        if (runIndex > 0 && runIndex >= parts.size() - 2) {
+            memJcBatchRun = true;
+            if (runIndex == parts.size() - 2) {
+                memJcBatchTimeout = Long.parseLong(parts.get(runIndex + 1));
+            }
+            parts = parts.subList(0, runIndex);
+        }
+        if (parts.size() > 1 && parts.get(parts.size() - 1).matches("[0-9]+")) {
+            memJcBatchThreads = Integer.parseInt(parts.get(parts.size() - 1));
+            parts = parts.subList(0, parts.size() - 1);
+        }
+        StringBuilder path = new StringBuilder();
+        for (String part : parts) {
+            if (path.length() > 0) {
+                path.append(':');
+            }
+            path.append(part);
+        }
+        memJcBatch = resolvePath(path.toString());
+    }
+
     public static void showUsage() {
 
         String sep = getOptionSeparator();
@@ -177,7 +561,26 @@ public final class Options {
         System.out.println("memjc Options (prefix is " + MEMJC_PREFIX + " or " + MEMJC_LONG_PREFIX + "):");
         System.out.println("  " + MEMJC_OPTION_HELP + " Show usage");
         System.out.println("  " + MEMJC_OPTION_OUT + " Output class file");
+        System.out.println("  " + MEMJC_OPTION_JAR + ":<jar file>[:" + MEMJC_JAR_STORED + "] Output class files to a jar");
         System.out.println("  " + MEMJC_OPTION_RUN + ":<classname>[:<arg1>:<arg2>...] main class");
         System.out.println("  " + MEMJC_OPTION_CLASSPATH + ":<classpath>[" + sep + "<classpath1>" + sep + "<classpath2>...] java class path");
+        System.out.println("  " + MEMJC_OPTION_DAEMON + "[:<port>] Run as compile daemon (default port " + Daemon.DEFAULT_PORT + ")");
+        System.out.println("  " + MEMJC_OPTION_INCREMENTAL + " Recompile only changed sources and their dependents (with " + MEMJC_OPTION_DAEMON + ")");
+        System.out.println("  " + MEMJC_OPTION_WATCH + "[:<debounce ms>] Recompile and run again when sources change");
+        System.out.println("  " + MEMJC_OPTION_PARALLEL + "[:<threads>] Compile independent packages in parallel");
+        System.out.println("  " + MEMJC_OPTION_BENCH + "[:<warmup>:<iterations>][:" + MEMJC_BENCH_RELOAD + "][:" + MEMJC_BENCH_JSON + "] Benchmark the main class");
+        System.out.println("  " + MEMJC_OPTION_RUN_ALL + "[:<threads>[:<timeout ms>]] Run every compiled main class at once, each in its own class loader");
+        System.out.println("  " + MEMJC_OPTION_BATCH + ":<dir or manifest>[:<threads>][:" + MEMJC_BATCH_RUN + "[:<timeout ms>]] Compile each source on its own and report every file, optionally run its main");
+        System.out.println("  " + MEMJC_OPTION_PROFILE + "[:<interval ms>][:" + MEMJC_PROFILE_ALL + "][:<file>] Sample the main class and write collapsed stacks (default every " + Profiler.DEFAULT_INTERVAL + " ms to " + Profiler.DEFAULT_FILE + ")");
+        System.out.println("  " + MEMJC_OPTION_PRELOAD + "[:<threads>] Load and link every compiled class before main (default threads is the number of processors)");
+        System.out.println("  " + MEMJC_OPTION_SRC + ":<dir or pattern> Compile the sources of a directory or a glob pattern (dir/**/*.java)");
+        System.out.println("  " + MEMJC_OPTION_SINCE + ":<file> Only the " + MEMJC_OPTION_SRC + " sources modified since the last successful compile (recorded in the file)");
+        System.out.println("  " + MEMJC_OPTION_LAZY + "[:<batch size>] Compile the main class first and other classes when they are first used (default batch " + OnDemandCompiler.DEFAULT_BATCH_SIZE + ")");
+        System.out.println("  " + MEMJC_OPTION_CACHE + "[:<dir>[:<max MB>]] Reuse classes compiled from the same sources (default ~/.memjc/cache)");
+        System.out.println("  " + MEMJC_OPTION_STORE + ":<max MB>[:" + MEMJC_STORE_COMPRESS + "] Limit the memory of compiled classes kept (with " + MEMJC_OPTION_DAEMON + ")");
+        System.out.println("  " + MEMJC_OPTION_CDS_DUMP + "[:<archive>] Run once and dump the loaded classes for a faster start (default memjc.jsa next to memjc.jar)");
+        System.out.println("  " + MEMJC_OPTION_DIAGNOSTICS + "[:<max>][:" + MEMJC_DIAGNOSTICS_JSON + "] Collect compile diagnostics and print them as text or JSON (default max " + CompileDiagnostics.DEFAULT_MAX_DIAGNOSTICS + ")");
+        System.out.println("  " + MEMJC_OPTION_FAIL_FAST + "[:<errors>] Abort the compile when this many errors are reported (default 1)");
+        System.out.println("  " + MEMJC_OPTION_STATS + "[:<json file>] Show compile phase times, output bytes, heap and GC");
     }
 }
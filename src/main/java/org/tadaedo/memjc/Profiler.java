@@ -0,0 +1,257 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// samples the stacks of the main thread (or all running threads) while main runs (-Mprofile),
+// frames of classes compiled by memjc are tagged with MEMJC_TAG
+public final class Profiler {
+
+    public static final long DEFAULT_INTERVAL = 10;
+    public static final String DEFAULT_FILE = "memjc.collapsed";
+    public static final int DEFAULT_TOP = 20;
+    // annotation suffix of flame graph frames
+    static final String MEMJC_TAG = "_[memjc]";
+
+    private final long interval;
+    private final boolean allThreads;
+    private final ClassStore store;
+    // collapsed stack (root first, frames separated by ;) to sample count
+    private final Map<String, Integer> stacks = new HashMap<>();
+    private int samples;
+    private Thread sampler;
+    private volatile boolean running;
+
+    // interval in milliseconds
+    public Profiler(long interval, boolean allThreads, ClassStore store) {
+
+        this.interval = interval;
+        this.allThreads = allThreads;
+        this.store = store;
+    }
+
+    public synchronized void start(final Thread target) {
+
+        if (sampler != null) {
+            throw new IllegalStateException("profiler already started");
+        }
+        running = true;
+        sampler = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                while (running) {
+                    sample(target);
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }, "memjc-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    public void stop() throws InterruptedException {
+
+        Thread thread;
+        synchronized (this) {
+            thread = sampler;
+            sampler = null;
+        }
+        if (thread != null) {
+            running = false;
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    private void sample(Thread target) {
+
+        Map<Thread, StackTraceElement[]> traces = new HashMap<>();
+        if (allThreads) {
+            // waiting threads and the threads of the JVM (reference handler, finalizer ...)
+            // would hide the busy ones
+            for (Map.Entry<Thread, StackTraceElement[]> trace : Thread.getAllStackTraces().entrySet()) {
+                Thread thread = trace.getKey();
+                if (thread == target || (thread != Thread.currentThread()
+                        && thread.getState() == Thread.State.RUNNABLE && !isSystemThread(thread))) {
+                    traces.put(thread, trace.getValue());
+                }
+            }
+        } else {
+            traces.put(target, target.getStackTrace());
+        }
+        if (traces.containsKey(target)) {
+            traces.put(target, trimLauncher(traces.get(target)));
+        }
+
+        synchronized (stacks) {
+            samples++;
+            for (Map.Entry<Thread, StackTraceElement[]> trace : traces.entrySet()) {
+                StackTraceElement[] frames = trace.getValue();
+                if (frames.length == 0) {
+                    continue;
+                }
+                StringBuilder buf = new StringBuilder(trace.getKey().getName().replace(';', ':'));
+                for (int i = frames.length - 1; i >= 0; i--) {
+                    buf.append(';').append(getFrameName(frames[i]));
+                }
+                String stack = buf.toString();
+                Integer count = stacks.get(stack);
+                stacks.put(stack, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    private static boolean isSystemThread(Thread thread) {
+
+        ThreadGroup group = thread.getThreadGroup();
+        return group != null && group.getParent() == null;
+    }
+
+    // the stack of main starts at main, not at memjc and reflection
+    private static StackTraceElement[] trimLauncher(StackTraceElement[] frames) {
+
+        int end = frames.length;
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i].getClassName().equals(Runner.class.getName())) {
+                end = i;
+                break;
+            }
+        }
+        while (end > 0 && isReflection(frames[end - 1].getClassName())) {
+            end--;
+        }
+        return end == frames.length ? frames : Arrays.copyOf(frames, end);
+    }
+
+    private static boolean isReflection(String className) {
+
+        return className.startsWith("java.lang.reflect.") || className.startsWith("jdk.internal.reflect.")
+                || className.startsWith("sun.reflect.");
+    }
+
+    private String getFrameName(StackTraceElement frame) {
+
+        String name = frame.getClassName() + "." + frame.getMethodName();
+        return store.contains(frame.getClassName()) ? name + MEMJC_TAG : name;
+    }
+
+    public int getSampleCount() {
+
+        synchronized (stacks) {
+            return samples;
+        }
+    }
+
+    // one "frame;frame;frame count" line per stack, the input of flamegraph.pl and speedscope
+    public void writeCollapsed(Path file) throws IOException {
+
+        Map<String, Integer> sorted;
+        synchronized (stacks) {
+            sorted = new TreeMap<>(stacks);
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Integer> stack : sorted.entrySet()) {
+                writer.write(stack.getKey());
+                writer.write(' ');
+                writer.write(String.valueOf(stack.getValue()));
+                writer.newLine();
+            }
+        }
+    }
+
+    // methods with the most samples on top of the stack (self) and anywhere on it (total)
+    public void printTop(PrintStream out, int top) {
+
+        final Map<String, Integer> self = new HashMap<>();
+        final Map<String, Integer> total = new HashMap<>();
+        int stackSamples = 0;
+        synchronized (stacks) {
+            for (Map.Entry<String, Integer> stack : stacks.entrySet()) {
+                String[] frames = stack.getKey().split(";");
+                int count = stack.getValue();
+                stackSamples += count;
+                add(self, frames[frames.length - 1], count);
+                // recursive methods count once per stack
+                Set<String> seen = new HashSet<>();
+                for (int i = 1; i < frames.length; i++) {
+                    if (seen.add(frames[i])) {
+                        add(total, frames[i], count);
+                    }
+                }
+            }
+        }
+
+        List<String> methods = new ArrayList<>(total.keySet());
+        Collections.sort(methods, new Comparator<String>() {
+
+            @Override
+            public int compare(String o1, String o2) {
+
+                int c = Integer.compare(get(self, o2), get(self, o1));
+                return c != 0 ? c : Integer.compare(get(total, o2), get(total, o1));
+            }
+        });
+
+        out.println(String.format("memjc profile: %d samples every %d ms (%s)", getSampleCount(), interval,
+                allThreads ? "all threads" : "main thread"));
+        out.println("     self    total  method");
+        for (String method : methods.subList(0, Math.min(top, methods.size()))) {
+            boolean compiled = method.endsWith(MEMJC_TAG);
+            String name = compiled ? method.substring(0, method.length() - MEMJC_TAG.length()) : method;
+            out.println(String.format("  %6.2f%%  %6.2f%%  %s%s", percent(get(self, method), stackSamples),
+                    percent(get(total, method), stackSamples), name, compiled ? " [memjc]" : ""));
+        }
+    }
+
+    private static void add(Map<String, Integer> counts, String method, int count) {
+
+        Integer value = counts.get(method);
+        counts.put(method, value == null ? count : value + count);
+    }
+
+    private static int get(Map<String, Integer> counts, String method) {
+
+        Integer value = counts.get(method);
+        return value == null ? 0 : value;
+    }
+
+    private static double percent(int count, int all) {
+
+        return all == 0 ? 0.0 : count * 100.0 / all;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+// outcome and captured output of one BatchRunner run
+public final class RunResult {
+
+    public enum Status {
+        OK, ERROR, TIMEOUT, CANCELLED
+    }
+
+    private final String className;
+    private final Status status;
+    private final String out;
+    private final String err;
+    private final Throwable error;
+    private final long time;
+
+    RunResult(String className, Status status, String out, String err, Throwable error, long time) {
+
+        this.className = className;
+        this.status = status;
+        this.out = out;
+        this.err = err;
+        this.error = error;
+        this.time = time;
+    }
+
+    public String getClassName() {
+
+        return className;
+    }
+
+    public Status getStatus() {
+
+        return status;
+    }
+
+    // standard output of the run, up to the timeout or cancellation
+    public String getOut() {
+
+        return out;
+    }
+
+    public String getErr() {
+
+        return err;
+    }
+
+    // thrown by main, null if it returned
+    public Throwable getError() {
+
+        return error;
+    }
+
+    // nanoseconds from the start of the run
+    public long getTime() {
+
+        return time;
+    }
+}
@@ -16,17 +16,150 @@
 package org.tadaedo.memjc;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public final class Runner {
 
+    private final Session session;
+    private Stats stats;
+    private Profiler profiler;
+    private int preloadThreads;
+    private MemoryClassLoader.SourceCompiler sourceCompiler;
+
+    public Runner(Session session) {
+
+        this.session = session;
+    }
+
+    public void setStats(Stats stats) {
+
+        this.stats = stats;
+    }
+
+    // samples main while it runs
+    public void setProfiler(Profiler profiler) {
+
+        this.profiler = profiler;
+    }
+
+    // define and link every compiled class on this many threads before main, 0 loads lazily
+    public void setPreload(int threads) {
+
+        this.preloadThreads = threads;
+    }
+
+    // classes missing from the session are compiled when main first uses them (see OnDemandCompiler)
+    public void setSourceCompiler(MemoryClassLoader.SourceCompiler sourceCompiler) {
+
+        this.sourceCompiler = sourceCompiler;
+    }
+
     public void execute(String className, List<String> classArgs, List<String> classPaths)
             throws Exception {
 
-        ClassLoader cl = ClassManager.getClassLoader(classPaths);
+        // a new class loader for every run (see Watch)
+        MemoryClassLoader cl = session.newClassLoader(classPaths);
+        cl.setSourceCompiler(sourceCompiler);
+
+        if (preloadThreads > 0) {
+            preload(cl);
+        }
+
+        if (profiler != null) {
+            profiler.start(Thread.currentThread());
+        }
+        try {
+            Method method = getMainMethod(className, cl);
+            invoke(method, classArgs);
+        } finally {
+            if (profiler != null) {
+                profiler.stop();
+            }
+            if (stats != null) {
+                stats.setCounter("class lookup hits", cl.getLookupHits());
+                stats.setCounter("class lookup misses", cl.getLookupMisses());
+            }
+        }
+    }
+
+    private void preload(final ClassLoader cl) throws InterruptedException {
+
+        if (stats != null) {
+            stats.begin("preload");
+        }
+        long start = System.nanoTime();
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (final String className : session.getClassStore().getClassNames()) {
+            tasks.add(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() {
+
+                    try {
+                        // HotSpot links (and verifies) a class before listing its methods,
+                        // static initializers still run on first use
+                        Class.forName(className, false, cl).getDeclaredMethods();
+                        return true;
+                    } catch (ClassNotFoundException | LinkageError ex) {
+                        // main fails the same way when it uses the class
+                        return false;
+                    }
+                }
+            });
+        }
+
+        int loaded = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(preloadThreads);
+        try {
+            for (Future<Boolean> future : executor.invokeAll(tasks)) {
+                try {
+                    if (future.get()) {
+                        loaded++;
+                    }
+                } catch (ExecutionException ex) {
+                    // counted as not loaded
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        long time = System.nanoTime() - start;
+        if (stats != null) {
+            stats.end("preload");
+            stats.setCounter("preload classes", loaded);
+            stats.setCounter("preload failed", tasks.size() - loaded);
+        }
+        System.err.println(String.format("memjc preload: %d classes in %.3f ms on %d threads", loaded,
+                Benchmark.toMillis(time), preloadThreads));
+    }
+
+    public Method getMainMethod(String className, ClassLoader cl) throws Exception {
 
         Class<?> clazz = Class.forName(className, true, cl);
-        Method method = clazz.getMethod("main", new Class[] {String[].class});
+        return clazz.getMethod("main", new Class[] {String[].class});
+    }
+
+    // a public static main(String[]) declared by the class, the class is not initialized
+    static boolean hasMainMethod(String className, ClassLoader cl) {
+
+        try {
+            Method method = Class.forName(className, false, cl).getDeclaredMethod("main", String[].class);
+            return Modifier.isStatic(method.getModifiers()) && Modifier.isPublic(method.getModifiers());
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    public void invoke(Method method, List<String> classArgs) throws Exception {
 
         String[] args = classArgs.toArray(new String[]{});
         method.invoke(null, new Object[] { args });
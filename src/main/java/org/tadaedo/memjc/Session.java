@@ -0,0 +1,426 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import javax.tools.StandardJavaFileManager;
+
+// compiled classes, output paths, incremental state and file manager of one compile and run,
+// sessions share nothing and compile concurrently
+public final class Session implements Closeable {
+
+    public static final String MEMJC_SCHEME = "memjc";
+    private static final String MFS_ROOT_PATH = "classes";
+    private static final String MFS_SEPARATOR = "/";
+    private static final int JAR_BUFFER_SIZE = 64 * 1024;
+    private static final long JAR_ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
+
+    // sessions read by the memjc: URL handler, keyed by URL host
+    private static final Map<String, Session> urlSessions = new ConcurrentHashMap<>();
+
+    private final String id = UUID.randomUUID().toString();
+    // memory path to output path and class name
+    private final Map<String, String> pathMap = new ConcurrentHashMap<>();
+    private final Map<String, String> classNameMap = new ConcurrentHashMap<>();
+    private final ClassStore classStore;
+    private final Incremental incremental = new Incremental(this);
+    private StandardJavaFileManager fileManager;
+    private List<String> fileManagerOpts;
+    private volatile MemoryClassLoader classLoader;
+    // background writer of -Mout and the memory paths it was given since startOutput
+    private volatile ClassFileWriter writer;
+    private final Set<String> written = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private List<String> classLoaderPaths;
+
+    public Session() {
+
+        this(new ClassStore());
+    }
+
+    public Session(ClassStore classStore) {
+
+        this.classStore = classStore;
+    }
+
+    private static boolean isWindows() {
+
+        return File.separatorChar == '\\';
+    }
+
+    private static String convertMfsFilePath(String fsRoot, String path) {
+
+        StringBuilder buf = new StringBuilder(MFS_SEPARATOR);
+        buf.append(MFS_ROOT_PATH);
+        buf.append(MFS_SEPARATOR);
+
+        if (isWindows()) {
+            path = path.replaceFirst(":", "").replace(File.separator, MFS_SEPARATOR);
+        } else {
+            path = path.substring(fsRoot.length());
+        }
+        buf.append(path);
+
+        return buf.toString();
+    }
+
+    private static String getFullPath(URI uri, String classPath) {
+
+        // relative path
+        Path classFilePath = Paths.get(uri);
+
+        String[] classPaths = classPath.split("\\.");
+        String className = classPaths[classPaths.length - 1] + ".class";
+        return classFilePath.resolve(className).toString();
+    }
+
+    private static String getMfsPath(String fullPath) {
+
+        String classFileRoot = Paths.get(fullPath).getRoot().toString();
+        return convertMfsFilePath(classFileRoot, fullPath);
+    }
+
+    public ClassStore getClassStore() {
+
+        return classStore;
+    }
+
+    Incremental getIncremental() {
+
+        return incremental;
+    }
+
+    protected OutputStream getOutputStream(URI uri, String classPath) throws IOException {
+
+        String fullPath = getFullPath(uri, classPath);
+        String mfsPath = getMfsPath(fullPath);
+
+        // save map path
+        pathMap.put(mfsPath, fullPath);
+
+        // the class store holds the bytes, a recompiled class replaces the previous one
+        classNameMap.put(mfsPath, classPath);
+        return new ClassOutputStream(classPath, mfsPath, fullPath);
+    }
+
+    protected InputStream getInputStream(URI uri, String classPath) throws IOException {
+
+        return getInputStream(getMfsPath(getFullPath(uri, classPath)));
+    }
+
+    protected InputStream getInputStream(String searchPath) throws IOException {
+
+        String className = classNameMap.get(searchPath);
+        byte[] bytes = className == null ? null : classStore.get(className);
+        if (bytes == null) {
+            throw new FileNotFoundException(searchPath);
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    // memjc://<session id>/classes/...
+    protected static InputStream getInputStream(URL url) throws IOException {
+
+        Session session = urlSessions.get(url.getHost());
+        if (session == null) {
+            throw new FileNotFoundException(url.toString());
+        }
+        return session.getInputStream(url.getPath());
+    }
+
+    protected boolean exists(URI uri, String classPath) {
+
+        String mfsPath = getMfsPath(getFullPath(uri, classPath));
+        // evicted from a bounded class store
+        return pathMap.containsKey(mfsPath) && classStore.contains(classPath);
+    }
+
+    protected void delete(URI uri, String classPath) throws IOException {
+
+        String mfsPath = getMfsPath(getFullPath(uri, classPath));
+        pathMap.remove(mfsPath);
+        classNameMap.remove(mfsPath);
+        classStore.remove(classPath);
+    }
+
+    public void outputAllFile() throws IOException {
+
+        for (String mfsPath : pathMap.keySet()) {
+
+            String fullPath = pathMap.get(mfsPath);
+            byte[] bytes = classStore.get(classNameMap.get(mfsPath));
+            if (bytes != null) {
+                ClassFileWriter.write(Paths.get(fullPath), bytes);
+            }
+        }
+    }
+
+    // class files are written in the background as javac closes them, until finishOutput
+    public synchronized void startOutput() {
+
+        if (writer == null) {
+            writer = new ClassFileWriter();
+        }
+        writer.resetCounts();
+        written.clear();
+    }
+
+    // writes the classes not compiled since startOutput (incremental) and waits for the writer
+    public void finishOutput() throws IOException {
+
+        ClassFileWriter w = writer;
+        if (w == null) {
+            outputAllFile();
+            return;
+        }
+        for (String mfsPath : pathMap.keySet()) {
+            if (!written.contains(mfsPath)) {
+                byte[] bytes = classStore.get(classNameMap.get(mfsPath));
+                if (bytes != null) {
+                    w.submit(Paths.get(pathMap.get(mfsPath)), bytes);
+                }
+            }
+        }
+        w.await();
+    }
+
+    ClassFileWriter getClassFileWriter() {
+
+        return writer;
+    }
+
+    public void outputJar(String jarPath, boolean stored, String mainClass) throws IOException {
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (mainClass != null && !mainClass.isEmpty()) {
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass);
+        }
+
+        // sorted entries with a fixed time, the same classes give the same jar
+        List<String> classNames = new ArrayList<>(classStore.getClassNames());
+        Collections.sort(classNames);
+
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(jarPath)), JAR_BUFFER_SIZE);
+        try (JarOutputStream jar = new JarOutputStream(out)) {
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            manifest.write(manifestBytes);
+            putJarEntry(jar, JarFile.MANIFEST_NAME, manifestBytes.toByteArray(), stored);
+
+            for (String className : classNames) {
+                byte[] bytes = classStore.get(className);
+                if (bytes != null) {
+                    putJarEntry(jar, className.replace('.', '/') + ".class", bytes, stored);
+                }
+            }
+        }
+    }
+
+    private static void putJarEntry(JarOutputStream jar, String name, byte[] bytes, boolean stored)
+            throws IOException {
+
+        JarEntry entry = new JarEntry(name);
+        entry.setTime(JAR_ENTRY_TIME);
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(bytes.length);
+            entry.setCompressedSize(bytes.length);
+            entry.setCrc(crc.getValue());
+        }
+        jar.putNextEntry(entry);
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+
+    public void clear() {
+
+        pathMap.clear();
+        classNameMap.clear();
+        classStore.clear();
+        classLoader = null;
+    }
+
+    // javac applies path options to the file manager, so it is reused only by equal options
+    synchronized StandardJavaFileManager getStandardFileManager(List<String> opts) throws IOException {
+
+        if (fileManager != null && !opts.equals(fileManagerOpts)) {
+            fileManager.close();
+            fileManager = null;
+        }
+        if (fileManager == null) {
+            fileManager = Compiler.getSystemCompiler().getStandardFileManager(null, null, Compiler.getCharset(opts));
+            fileManagerOpts = new ArrayList<>(opts);
+        }
+        return fileManager;
+    }
+
+    @Override
+    public synchronized void close() {
+
+        urlSessions.remove(id);
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (fileManager != null) {
+            try {
+                fileManager.close();
+            } catch (IOException ex) {
+                // nothing to release
+            }
+            fileManager = null;
+        }
+    }
+
+    // put class bytes to the class store on close, and to the writer of -Mout
+    private class ClassOutputStream extends ByteArrayOutputStream {
+
+        private final String className;
+        private final String mfsPath;
+        private final String fullPath;
+
+        public ClassOutputStream(String className, String mfsPath, String fullPath) {
+
+            this.className = className;
+            this.mfsPath = mfsPath;
+            this.fullPath = fullPath;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            super.close();
+            byte[] bytes = toByteArray();
+            classStore.put(className, bytes);
+            ClassFileWriter w = writer;
+            if (w != null) {
+                written.add(mfsPath);
+                w.submit(Paths.get(fullPath), bytes);
+            }
+            // the classes of the session changed
+            classLoader = null;
+        }
+    }
+
+    // class loader of the session, created again after the classes change
+    public synchronized ClassLoader getClassLoader(List<String> classPaths) throws IOException {
+
+        MemoryClassLoader loader = classLoader;
+        if (loader == null || !classPaths.equals(classLoaderPaths)) {
+            loader = newClassLoader(classPaths);
+            classLoader = loader;
+            classLoaderPaths = new ArrayList<>(classPaths);
+        }
+        return loader;
+    }
+
+    // a new class loader for every call (see Runner, Benchmark)
+    public MemoryClassLoader newClassLoader(List<String> classPaths) throws IOException {
+
+        List<URL> urls = getFileUrls(classPaths);
+        return new MemoryClassLoader(classStore, urls.toArray(new URL[0]), getParentClassLoader());
+    }
+
+    // memjc: URLs read through Handler, then the default filesystem
+    public ClassLoader getUrlClassLoader(List<String> classPaths) throws IOException {
+
+        urlSessions.put(id, this);
+
+        final String uriSeparator = "/";
+        List<URL> urls = new ArrayList<>();
+
+        // add memory filesystem classpath
+        for (String classPath : classPaths) {
+            Path fsPath = Paths.get(classPath);
+            if (!fsPath.isAbsolute()) {
+                fsPath = Paths.get(System.getProperty("user.dir"));
+                fsPath = fsPath.resolve(classPath).normalize();
+            }
+            Path fsRootPath = fsPath.getRoot();
+            String path = convertMfsFilePath(fsRootPath.toString(), fsPath.toString());
+            if (Files.isDirectory(fsPath) && !path.endsWith(uriSeparator)) {
+                path += uriSeparator;
+            }
+            try {
+                urls.add(new URI(MEMJC_SCHEME, id, path, null).toURL());
+            } catch (URISyntaxException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        // add default filesystem classpath
+        urls.addAll(getFileUrls(classPaths));
+
+        return new URLClassLoader(urls.toArray(new URL[0]), getParentClassLoader());
+    }
+
+    static List<URL> getFileUrls(List<String> classPaths) throws IOException {
+
+        final String uriSeparator = "/";
+        List<URL> urls = new ArrayList<>();
+
+        for (String classPath : classPaths) {
+            Path fsRootPath = Paths.get(classPath);
+            String path = fsRootPath.toUri().toString();
+            if (Files.isDirectory(fsRootPath) && !path.endsWith(uriSeparator)) {
+                path += uriSeparator;
+            }
+            urls.add(new URL(path));
+        }
+        return urls;
+    }
+
+    static ClassLoader getParentClassLoader() {
+
+        ClassLoader loader = ClassLoader.getSystemClassLoader();
+        while (loader.getParent() != null) {
+            loader = loader.getParent();
+        }
+        return loader;
+    }
+}
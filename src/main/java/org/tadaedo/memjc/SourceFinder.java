@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// sources of a directory or glob pattern (-Msrc:src/**/*.java), directories are walked in parallel
+public final class SourceFinder {
+
+    private static final String DEFAULT_GLOB = "**/*.java";
+    private static final String ANY_DIRS = "**/";
+
+    private final long since;
+
+    // files modified before since (milliseconds) are skipped, 0 finds all
+    public SourceFinder(long since) {
+
+        this.since = since;
+    }
+
+    // sorted paths of the matching regular files
+    public List<String> find(String pattern) throws IOException {
+
+        Path base;
+        String glob;
+        Path path = Paths.get(pattern);
+        if (Files.isDirectory(path)) {
+            base = path;
+            glob = DEFAULT_GLOB;
+        } else {
+            // the directories before the first glob character, the rest is matched
+            int index = indexOfGlob(pattern);
+            if (index == -1) {
+                return Files.isRegularFile(path) && isModified(Files.readAttributes(path, BasicFileAttributes.class))
+                        ? Collections.singletonList(pattern) : Collections.<String>emptyList();
+            }
+            int sep = Math.max(pattern.lastIndexOf('/', index), pattern.lastIndexOf('\\', index));
+            base = Paths.get(sep == -1 ? "" : pattern.substring(0, sep + 1));
+            glob = pattern.substring(sep + 1).replace('\\', '/');
+        }
+        if (!Files.isDirectory(base)) {
+            return Collections.emptyList();
+        }
+
+        // ** also matches no directory (src/**/*.java finds src/A.java)
+        List<PathMatcher> matchers = new ArrayList<>();
+        matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        if (glob.startsWith(ANY_DIRS)) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob.substring(ANY_DIRS.length())));
+        }
+
+        // linked directories are followed, each real directory is walked once (no link loops)
+        Set<Path> visited = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        visited.add(base.toRealPath());
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            List<String> paths = pool.invoke(new Walk(base, base, matchers, visited));
+            Collections.sort(paths);
+            return paths;
+        } catch (WalkException ex) {
+            throw (IOException) ex.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int indexOfGlob(String pattern) {
+
+        for (int i = 0; i < pattern.length(); i++) {
+            if ("*?[{".indexOf(pattern.charAt(i)) != -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isModified(BasicFileAttributes attrs) {
+
+        // the file system may round both times down to the same tick (1 or 2 seconds),
+        // a file saved in the tick of the last scan is compiled again instead of never
+        return since == 0 || attrs.lastModifiedTime().toMillis() >= since;
+    }
+
+    // IOException out of compute
+    private static final class WalkException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public WalkException(IOException cause) {
+
+            super(cause);
+        }
+    }
+
+    // one directory, subdirectories are forked
+    private final class Walk extends RecursiveTask<List<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path base;
+        private final Path dir;
+        private final List<PathMatcher> matchers;
+        private final Set<Path> visited;
+
+        public Walk(Path base, Path dir, List<PathMatcher> matchers, Set<Path> visited) {
+
+            this.base = base;
+            this.dir = dir;
+            this.matchers = matchers;
+            this.visited = visited;
+        }
+
+        @Override
+        protected List<String> compute() {
+
+            List<String> paths = new ArrayList<>();
+            List<Walk> walks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path path : stream) {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attrs.isDirectory()) {
+                        if (!visited.add(path.toRealPath())) {
+                            continue;
+                        }
+                        Walk walk = new Walk(base, path, matchers, visited);
+                        walk.fork();
+                        walks.add(walk);
+                    } else if (attrs.isRegularFile() && matches(base.relativize(path)) && isModified(attrs)) {
+                        paths.add(path.toString());
+                    }
+                }
+            } catch (IOException ex) {
+                throw new WalkException(ex);
+            }
+            for (Walk walk : walks) {
+                paths.addAll(walk.join());
+            }
+            return paths;
+        }
+
+        private boolean matches(Path relative) {
+
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(relative)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
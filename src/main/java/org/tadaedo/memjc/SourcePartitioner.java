@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// splits sources into groups of packages that do not refer to each other
+public final class SourcePartitioner {
+
+    static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;",
+            Pattern.MULTILINE);
+
+    private final Map<String, String> parents = new HashMap<>();
+
+    public List<List<String>> split(List<String> filePaths, int count) throws IOException {
+
+        parents.clear();
+
+        // package of each source
+        Map<String, List<String>> packages = new TreeMap<>();
+        Map<String, Set<String>> qualifiers = new HashMap<>();
+        Map<String, Long> sizes = new HashMap<>();
+        for (String path : filePaths) {
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            // only the ASCII package and import names are needed
+            String content = new String(bytes, StandardCharsets.ISO_8859_1);
+            qualifiers.put(path, getQualifiers(content));
+            sizes.put(path, (long) bytes.length);
+
+            Matcher matcher = PACKAGE_PATTERN.matcher(content);
+            String packageName = matcher.find() ? matcher.group(1) : "";
+            List<String> paths = packages.get(packageName);
+            if (paths == null) {
+                paths = new ArrayList<>();
+                packages.put(packageName, paths);
+            }
+            paths.add(path);
+            parents.put(packageName, packageName);
+        }
+
+        // packages referred by name (imports and qualified names) are compiled together
+        for (Map.Entry<String, List<String>> entry : packages.entrySet()) {
+            for (String path : entry.getValue()) {
+                for (String qualifier : qualifiers.get(path)) {
+                    if (packages.containsKey(qualifier) && !qualifier.equals(entry.getKey())) {
+                        union(entry.getKey(), qualifier);
+                    }
+                }
+            }
+        }
+
+        // connected components
+        Map<String, List<String>> components = new TreeMap<>();
+        for (Map.Entry<String, List<String>> entry : packages.entrySet()) {
+            String root = find(entry.getKey());
+            List<String> component = components.get(root);
+            if (component == null) {
+                component = new ArrayList<>();
+                components.put(root, component);
+            }
+            component.addAll(entry.getValue());
+        }
+
+        return pack(new ArrayList<>(components.values()), sizes, count);
+    }
+
+    // largest components first into the smallest partition
+    private static List<List<String>> pack(List<List<String>> components, final Map<String, Long> sizes,
+            int count) {
+
+        final Map<List<String>, Long> componentSizes = new HashMap<>();
+        for (List<String> component : components) {
+            long size = 0;
+            for (String path : component) {
+                size += sizes.get(path);
+            }
+            componentSizes.put(component, size);
+        }
+        Collections.sort(components, new Comparator<List<String>>() {
+
+            @Override
+            public int compare(List<String> o1, List<String> o2) {
+                return Long.compare(componentSizes.get(o2), componentSizes.get(o1));
+            }
+        });
+
+        int partitionCount = Math.min(count, components.size());
+        List<List<String>> partitions = new ArrayList<>();
+        long[] partitionSizes = new long[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new ArrayList<String>());
+        }
+        for (List<String> component : components) {
+            int smallest = 0;
+            for (int i = 1; i < partitionCount; i++) {
+                if (partitionSizes[i] < partitionSizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            partitions.get(smallest).addAll(component);
+            partitionSizes[smallest] += componentSizes.get(component);
+        }
+
+        for (List<String> partition : partitions) {
+            Collections.sort(partition);
+        }
+        Collections.sort(partitions, new Comparator<List<String>>() {
+
+            @Override
+            public int compare(List<String> o1, List<String> o2) {
+                return o1.get(0).compareTo(o2.get(0));
+            }
+        });
+        return partitions;
+    }
+
+    // every dotted name followed by a dot (a.b of import a.b.C or a.b.*), a name after a dot starts none
+    private static Set<String> getQualifiers(String content) {
+
+        Set<String> qualifiers = new HashSet<>();
+        int length = content.length();
+        int i = 0;
+        while (i < length) {
+            if (!Character.isJavaIdentifierStart(content.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            boolean member = start > 0 && content.charAt(start - 1) == '.';
+            while (i < length) {
+                char c = content.charAt(i);
+                if (c == '.') {
+                    if (!member) {
+                        qualifiers.add(content.substring(start, i));
+                    }
+                    i++;
+                } else if (Character.isJavaIdentifierPart(c)) {
+                    i++;
+                } else {
+                    break;
+                }
+            }
+        }
+        return qualifiers;
+    }
+
+    private String find(String packageName) {
+
+        String parent = parents.get(packageName);
+        if (parent.equals(packageName)) {
+            return packageName;
+        }
+        String root = find(parent);
+        parents.put(packageName, root);
+        return root;
+    }
+
+    private void union(String packageName1, String packageName2) {
+
+        String root1 = find(packageName1);
+        String root2 = find(packageName2);
+        if (root1.compareTo(root2) < 0) {
+            parents.put(root2, root1);
+        } else if (root1.compareTo(root2) > 0) {
+            parents.put(root1, root2);
+        }
+    }
+}
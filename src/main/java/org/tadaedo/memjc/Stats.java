@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+
+// compile phase times, class output bytes, heap and GC deltas (-Mstats)
+public final class Stats {
+
+    // javac API classes are loaded by the compiler class loader (tools.jar on JDK 7/8)
+    private static final String JAVAC_TASK = "com.sun.source.util.JavacTask";
+    private static final String TASK_LISTENER = "com.sun.source.util.TaskListener";
+    private static final String TASK_EVENT = "com.sun.source.util.TaskEvent";
+
+    private final Map<String, Long> phases = new TreeMap<>();
+    private final Map<String, Map<String, Long>> units = new TreeMap<>();
+    private final Map<String, Long> starts = new HashMap<>();
+    private final Map<String, Section> sections = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new TreeMap<>();
+    private long bytesWritten;
+    private int classesWritten;
+
+    private static class Section {
+
+        private final long startTime = System.nanoTime();
+        private final long startHeap = getUsedHeap();
+        private final long startGcCount = getGcCount();
+        private final long startGcTime = getGcTime();
+        private long time;
+        private long heap;
+        private long gcCount;
+        private long gcTime;
+
+        public void end() {
+
+            time = System.nanoTime() - startTime;
+            heap = getUsedHeap() - startHeap;
+            gcCount = getGcCount() - startGcCount;
+            gcTime = getGcTime() - startGcTime;
+        }
+    }
+
+    public synchronized void begin(String name) {
+
+        sections.put(name, new Section());
+    }
+
+    public synchronized void end(String name) {
+
+        Section section = sections.get(name);
+        if (section != null) {
+            section.end();
+        }
+    }
+
+    public void register(CompilationTask task) {
+
+        try {
+            ClassLoader loader = task.getClass().getClassLoader();
+            Class<?> taskType = Class.forName(JAVAC_TASK, false, loader);
+            Class<?> listenerType = Class.forName(TASK_LISTENER, false, loader);
+            if (!taskType.isInstance(task)) {
+                return;
+            }
+
+            Class<?> eventType = Class.forName(TASK_EVENT, false, loader);
+            final Method getKind = eventType.getMethod("getKind");
+            final Method getSourceFile = eventType.getMethod("getSourceFile");
+            Object listener = Proxy.newProxyInstance(loader, new Class<?>[] {listenerType}, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+                    switch (method.getName()) {
+                    case "started":
+                    case "finished":
+                        String kind = getKind.invoke(args[0]).toString();
+                        JavaFileObject file = (JavaFileObject) getSourceFile.invoke(args[0]);
+                        event(method.getName().equals("started"), kind, file == null ? null : file.getName());
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "memjc stats listener";
+                    default:
+                        return null;
+                    }
+                }
+            });
+            taskType.getMethod("setTaskListener", listenerType).invoke(task, listener);
+        } catch (ReflectiveOperationException ex) {
+            // not javac, no phase times
+        }
+    }
+
+    private synchronized void event(boolean started, String kind, String file) {
+
+        String key = kind + "|" + file;
+        long now = System.nanoTime();
+        if (started) {
+            starts.put(key, now);
+            return;
+        }
+
+        Long start = starts.remove(key);
+        if (start == null) {
+            return;
+        }
+        long time = now - start;
+        add(phases, kind, time);
+        if (file != null) {
+            Map<String, Long> unit = units.get(file);
+            if (unit == null) {
+                unit = new TreeMap<>();
+                units.put(file, unit);
+            }
+            add(unit, kind, time);
+        }
+    }
+
+    private static void add(Map<String, Long> map, String key, long value) {
+
+        Long current = map.get(key);
+        map.put(key, current == null ? value : current + value);
+    }
+
+    public OutputStream getOutputStream(OutputStream stream) {
+
+        return new FilterOutputStream(stream) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+
+                out.write(b, off, len);
+                addBytesWritten(len);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+
+                out.write(b);
+                addBytesWritten(1);
+            }
+
+            @Override
+            public void close() throws IOException {
+
+                super.close();
+                addClassWritten();
+            }
+        };
+    }
+
+    private synchronized void addBytesWritten(long bytes) {
+
+        bytesWritten += bytes;
+    }
+
+    private synchronized void addClassWritten() {
+
+        classesWritten++;
+    }
+
+    public synchronized void setCounter(String name, long value) {
+
+        counters.put(name, value);
+    }
+
+    public synchronized void print(PrintStream out) {
+
+        out.println("memjc stats:");
+        for (Map.Entry<String, Section> entry : sections.entrySet()) {
+            Section section = entry.getValue();
+            out.println(String.format("  %-8s %10.3f ms  heap %+,d bytes  gc %d (%d ms)", entry.getKey(),
+                    section.time / 1000000.0, section.heap, section.gcCount, section.gcTime));
+        }
+        for (Map.Entry<String, Long> entry : phases.entrySet()) {
+            out.println(String.format("  %-26s %10.3f ms", entry.getKey().toLowerCase(Locale.ROOT),
+                    entry.getValue() / 1000000.0));
+        }
+        out.println(String.format("  classes written %d (%,d bytes)", classesWritten, bytesWritten));
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            out.println(String.format("  %s %d", entry.getKey(), entry.getValue()));
+        }
+    }
+
+    public synchronized void writeJson(String path) throws IOException {
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("{\"sections\":{");
+        List<String> items = new ArrayList<>();
+        for (Map.Entry<String, Section> entry : sections.entrySet()) {
+            Section section = entry.getValue();
+            items.add(quote(entry.getKey()) + ":{\"timeNs\":" + section.time + ",\"heapBytes\":" + section.heap
+                    + ",\"gcCount\":" + section.gcCount + ",\"gcTimeMs\":" + section.gcTime + "}");
+        }
+        join(buf, items);
+        buf.append("},\"phases\":");
+        appendTimes(buf, phases);
+        buf.append(",\"units\":{");
+        items.clear();
+        for (Map.Entry<String, Map<String, Long>> entry : units.entrySet()) {
+            StringBuilder unit = new StringBuilder(quote(entry.getKey())).append(':');
+            appendTimes(unit, entry.getValue());
+            items.add(unit.toString());
+        }
+        join(buf, items);
+        buf.append("},\"classesWritten\":").append(classesWritten);
+        buf.append(",\"bytesWritten\":").append(bytesWritten);
+        buf.append(",\"counters\":");
+        appendTimes(buf, counters);
+        buf.append("}\n");
+
+        Files.write(Paths.get(path), buf.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void appendTimes(StringBuilder buf, Map<String, Long> times) {
+
+        List<String> items = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : times.entrySet()) {
+            items.add(quote(entry.getKey()) + ":" + entry.getValue());
+        }
+        buf.append('{');
+        join(buf, items);
+        buf.append('}');
+    }
+
+    private static void join(StringBuilder buf, List<String> items) {
+
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append(items.get(i));
+        }
+    }
+
+    static String quote(String value) {
+
+        StringBuilder buf = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                buf.append('\\').append(c);
+            } else if (c < ' ') {
+                buf.append(String.format("\\u%04x", (int) c));
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.append('"').toString();
+    }
+
+    private static long getUsedHeap() {
+
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long getGcCount() {
+
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcTime() {
+
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+}
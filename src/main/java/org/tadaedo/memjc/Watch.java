@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tadaedo.memjc;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// recompile changed sources and run the main class again (-Mwatch)
+public final class Watch {
+
+    public static final long DEFAULT_DEBOUNCE = 200;
+
+    private final Options options;
+    private final long debounce;
+    private final Session session;
+
+    public Watch(Options options, long debounce, Session session) {
+
+        this.options = options;
+        this.session = session;
+        this.debounce = debounce;
+    }
+
+    public void watch() throws IOException, InterruptedException {
+
+        // the compiler, file manager and classes are kept between runs,
+        // only changed sources and their dependents are compiled
+        options.memJcIncremental = true;
+
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            for (Path dir : getSourceDirectories()) {
+                dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+
+            while (true) {
+                // every run loads the classes in a new class loader, the previous one is left to GC
+                Main.execute(options, session);
+                System.err.println("memjc watching for changes...");
+
+                boolean changed = false;
+                while (!changed) {
+                    for (Path path : waitForChange(service)) {
+                        changed |= updateFiles(path);
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<Path> getSourceDirectories() {
+
+        Set<Path> dirs = new LinkedHashSet<>();
+        for (String file : options.files) {
+            dirs.add(Paths.get(file).toAbsolutePath().normalize().getParent());
+        }
+        return dirs;
+    }
+
+    // sources compiled implicitly by javac are compiled as given sources once they change,
+    // other sources in the watched directories are not part of the program
+    private boolean updateFiles(Path path) {
+
+        for (int i = 0; i < options.files.size(); i++) {
+            if (Paths.get(options.files.get(i)).toAbsolutePath().normalize().equals(path)) {
+                if (!Files.exists(path)) {
+                    options.files.remove(i);
+                }
+                return true;
+            }
+        }
+        if (Files.exists(path) && session.getIncremental().isImplicitSource(path)) {
+            options.files.add(path.toString());
+            return true;
+        }
+        return false;
+    }
+
+    private Set<Path> waitForChange(WatchService service) throws InterruptedException {
+
+        Set<Path> changed = new LinkedHashSet<>();
+        WatchKey key = service.take();
+        while (key != null) {
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Object context = event.context();
+                if (context instanceof Path && context.toString().endsWith(".java")) {
+                    changed.add(dir.resolve((Path) context));
+                }
+            }
+            key.reset();
+
+            // editors write a file in several steps, wait until it is quiet
+            key = changed.isEmpty() ? service.take() : service.poll(debounce, TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+}